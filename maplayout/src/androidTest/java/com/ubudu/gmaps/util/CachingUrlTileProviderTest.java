@@ -0,0 +1,101 @@
+package com.ubudu.gmaps.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.gms.maps.model.Tile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the provider hands cached and downloaded tiles to the map as raw bytes, exactly as
+ * they were served, without decoding and re-encoding them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CachingUrlTileProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger fetchCount = new AtomicInteger();
+    private byte[] servedImage;
+    private TileDiskCache diskCache;
+    private CachingUrlTileProvider tileProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        diskCache = new TileDiskCache(folder.newFolder("tiles"), TileDiskCache.DEFAULT_MAX_SIZE);
+        tileProvider = new CachingUrlTileProvider(InstrumentationRegistry.getTargetContext(), 256, 256, new TileFetcher() {
+            @Override
+            public byte[] fetch(String url) throws IOException {
+                fetchCount.incrementAndGet();
+                return servedImage;
+            }
+        }) {
+            @Override
+            public String getTileUrl(int x, int y, int z) {
+                return url(x, y, z);
+            }
+        };
+        tileProvider.setDiskCache(diskCache);
+        tileProvider.setMemoryCache(new TileMemoryCache(1024 * 1024));
+    }
+
+    @Test
+    public void getTile_returnsTheDiskCachedBytesUnchanged() {
+        byte[] cachedImage = createImage(7);
+        diskCache.put(url(3, 5, 18), cachedImage.clone());
+
+        Tile tile = tileProvider.getTile(3, 5, 18);
+        assertArrayEquals(cachedImage, tile.data);
+        assertEquals(256, tile.width);
+        assertEquals(256, tile.height);
+        assertEquals(0, fetchCount.get());
+    }
+
+    @Test
+    public void getTile_returnsTheMemoryCachedBytesUnchanged() {
+        byte[] cachedImage = createImage(8);
+        diskCache.put(url(3, 5, 18), cachedImage.clone());
+        tileProvider.getTile(3, 5, 18);
+        diskCache.clear();
+
+        assertArrayEquals(cachedImage, tileProvider.getTile(3, 5, 18).data);
+        assertEquals(0, fetchCount.get());
+    }
+
+    @Test
+    public void getTile_returnsAndCachesTheDownloadedBytesUnchanged() {
+        byte[] downloadedImage = createImage(9);
+        servedImage = downloadedImage.clone();
+
+        assertArrayEquals(downloadedImage, tileProvider.getTile(3, 5, 18).data);
+        assertArrayEquals(downloadedImage, diskCache.get(url(3, 5, 18)).getData());
+        assertEquals(1, fetchCount.get());
+    }
+
+    private static String url(int x, int y, int z) {
+        return "https://tiles.example.com/" + z + "/" + x + "/" + y + ".png";
+    }
+
+    /**
+     * @return PNG signature followed by random bytes, which any decoding and re-encoding would change
+     */
+    private static byte[] createImage(long seed) {
+        byte[] image = new byte[4096];
+        new Random(seed).nextBytes(image);
+        byte[] signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+        System.arraycopy(signature, 0, image, 0, signature.length);
+        return image;
+    }
+}
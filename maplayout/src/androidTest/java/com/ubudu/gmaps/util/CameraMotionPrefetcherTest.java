@@ -0,0 +1,184 @@
+package com.ubudu.gmaps.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays an eastward pan against a tile provider whose fetches all take the same time, with and
+ * without the camera motion prefetcher, and compares how long the tiles coming into view stay blank.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CameraMotionPrefetcherTest {
+
+    private static final long FETCH_LATENCY = 150; // ms
+    private static final long FRAME = 16; // ms
+    private static final int FRAMES = 150;
+    private static final int ZOOM = 16;
+    private static final int RENDERER_THREADS = 4;
+    // visible region of a phone screen at zoom 16, about 4 x 7 tiles, panned by about one tile per second
+    private static final double WIDTH = 0.02;
+    private static final double HEIGHT = 0.025;
+    private static final double PAN_PER_FRAME = 0.0001;
+
+    @Test
+    public void prefetching_shortensTheBlankTimeOfTheTilesComingIntoView() throws Exception {
+        PanResult withoutPrefetch = replayPan(null);
+        CameraMotionPrefetcher prefetcher = new CameraMotionPrefetcher(RENDERER_THREADS, CameraMotionPrefetcher.DEFAULT_MAX_BYTES_PER_MOTION);
+        PanResult withPrefetch = replayPan(prefetcher);
+
+        assertTrue(withoutPrefetch.tileCount > 0);
+        assertEquals(withoutPrefetch.tileCount, withPrefetch.tileCount);
+        assertTrue(prefetcher.getPrefetchedTileCount() > 0);
+        // without prefetching, each tile coming into view is blank for about one fetch
+        assertTrue(withoutPrefetch.getMeanBlankTime() >= FETCH_LATENCY / 2);
+        assertTrue(withPrefetch.getMeanBlankTime() < withoutPrefetch.getMeanBlankTime() / 2);
+    }
+
+    /**
+     * Loads the visible tiles, then pans eastward one frame at a time. Renderer threads load the tiles
+     * as they come into view, the time from their first frame in view to their image is their blank time.
+     *
+     * @param prefetcher prefetcher told about each camera move, null for none
+     * @return blank time of the tiles which came into view during the pan
+     */
+    private PanResult replayPan(CameraMotionPrefetcher prefetcher) throws Exception {
+        final CachingUrlTileProvider tileProvider = createTileProvider();
+        List<CachingUrlTileProvider> tileProviders = Collections.singletonList(tileProvider);
+        ExecutorService renderer = Executors.newFixedThreadPool(RENDERER_THREADS);
+        final AtomicLong blankNanos = new AtomicLong();
+        final AtomicInteger loadedTileCount = new AtomicInteger();
+        Set<Long> requestedTiles = new HashSet<>();
+        int tileCount = 0;
+        try {
+            List<Future<?>> preloads = new ArrayList<>();
+            for (final long key : getVisibleTiles(bounds(0))) {
+                requestedTiles.add(key);
+                preloads.add(renderer.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        tileProvider.preloadTile(TileKey.x(key), TileKey.y(key), TileKey.z(key));
+                    }
+                }));
+            }
+            for (Future<?> preload : preloads) {
+                preload.get();
+            }
+            for (int frame = 1; frame <= FRAMES; frame++) {
+                LatLngBounds visibleBounds = bounds(frame);
+                if (prefetcher != null) {
+                    prefetcher.onCameraMove(visibleBounds, ZOOM, tileProviders);
+                }
+                for (final long key : getVisibleTiles(visibleBounds)) {
+                    if (!requestedTiles.add(key)) {
+                        continue;
+                    }
+                    tileCount++;
+                    final long visibleAt = System.nanoTime();
+                    renderer.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            Tile tile = tileProvider.getTile(TileKey.x(key), TileKey.y(key), TileKey.z(key));
+                            blankNanos.addAndGet(System.nanoTime() - visibleAt);
+                            if (tile != null && tile.data != null) {
+                                loadedTileCount.incrementAndGet();
+                            }
+                        }
+                    });
+                }
+                Thread.sleep(FRAME);
+            }
+            if (prefetcher != null) {
+                prefetcher.onCameraIdle();
+            }
+        } finally {
+            renderer.shutdown();
+            assertTrue(renderer.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(tileCount, loadedTileCount.get());
+        return new PanResult(tileCount, blankNanos.get());
+    }
+
+    /**
+     * @return provider of tiles which all take {@link #FETCH_LATENCY} to fetch, cached in memory only
+     */
+    private static CachingUrlTileProvider createTileProvider() {
+        CachingUrlTileProvider tileProvider = new CachingUrlTileProvider(InstrumentationRegistry.getTargetContext(), 256, 256, new TileFetcher() {
+            @Override
+            public byte[] fetch(String url) throws IOException {
+                try {
+                    Thread.sleep(FETCH_LATENCY);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new byte[1024];
+            }
+        }) {
+            @Override
+            public String getTileUrl(int x, int y, int z) {
+                return "https://tiles.example.com/" + z + "/" + x + "/" + y + ".png";
+            }
+        };
+        tileProvider.setDiskCache(null);
+        tileProvider.setMemoryCache(new TileMemoryCache(4 * 1024 * 1024));
+        return tileProvider;
+    }
+
+    private static Set<Long> getVisibleTiles(LatLngBounds visibleBounds) {
+        TileRange tileRange = new TileRange(visibleBounds, 256, ZOOM, ZOOM);
+        Set<Long> tiles = new HashSet<>();
+        for (int x = tileRange.getMinX(ZOOM); x <= tileRange.getMaxX(ZOOM); x++) {
+            for (int y = tileRange.getMinY(ZOOM); y <= tileRange.getMaxY(ZOOM); y++)
+                tiles.add(TileKey.of(x, y, ZOOM));
+        }
+        return tiles;
+    }
+
+    /**
+     * @return visible region at the given frame of the pan
+     */
+    private static LatLngBounds bounds(int frame) {
+        double longitude = 2.35 + frame * PAN_PER_FRAME;
+        return new LatLngBounds(new LatLng(48.85 - HEIGHT / 2, longitude - WIDTH / 2),
+                new LatLng(48.85 + HEIGHT / 2, longitude + WIDTH / 2));
+    }
+
+    private static class PanResult {
+
+        final int tileCount;
+        final long blankNanos;
+
+        PanResult(int tileCount, long blankNanos) {
+            this.tileCount = tileCount;
+            this.blankNanos = blankNanos;
+        }
+
+        /**
+         * @return mean blank time of the tiles in ms
+         */
+        long getMeanBlankTime() {
+            return blankNanos / tileCount / 1000000;
+        }
+    }
+}
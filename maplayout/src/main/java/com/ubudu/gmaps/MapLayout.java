@@ -32,25 +32,42 @@ import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 import com.google.android.gms.maps.model.TileOverlay;
 import com.google.android.gms.maps.model.TileOverlayOptions;
+import com.google.android.gms.maps.model.TileProvider;
 import com.ubudu.gmaps.factory.MarkerOptionsFactory;
 import com.ubudu.gmaps.factory.MarkerOptionsStrategyFactory;
 import com.ubudu.gmaps.model.Path;
 import com.ubudu.gmaps.model.Zone;
 import com.ubudu.gmaps.util.CachingUrlTileProvider;
+import com.ubudu.gmaps.util.CameraMotionPrefetcher;
+import com.ubudu.gmaps.util.LevelTileOverlayManager;
+import com.ubudu.gmaps.util.MBTilesTileProvider;
 import com.ubudu.gmaps.util.MarkerOptionsStrategy;
 import com.ubudu.gmaps.util.MarkerSearchPattern;
+import com.ubudu.gmaps.util.MarkerSpatialIndex;
+import com.ubudu.gmaps.util.MarkerTagIndex;
+import com.ubudu.gmaps.util.MarkerTitleIndex;
 import com.ubudu.gmaps.util.MathUtils;
-import com.ubudu.gmaps.util.Mercator;
+import com.ubudu.gmaps.util.TileMemoryCache;
+import com.ubudu.gmaps.util.TilePrefetcher;
+import com.ubudu.gmaps.util.TileScheduler;
+import com.ubudu.gmaps.util.TileRange;
+import com.ubudu.gmaps.util.TileUrlTemplate;
+import com.ubudu.gmaps.util.UrlTemplateTileProvider;
 import com.ubudu.gmaps.util.ZoneLabelOptions;
 import com.ubudu.gmaps.util.ZoneOptions;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -67,6 +84,10 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
     private final static long ANIMATE_LOCATION_CHANGE_DURATION = 400; // ms
     private final static int DEFAULT_MAP_ZOOM = 19;
     private final static int TILES_OVERLAY_Z_INDEX = 1;
+    private final static int TILES_PREFETCH_CONCURRENCY = 4;
+    private final static int DEFAULT_MAX_VIRTUALIZED_MARKERS = 1000;
+    private final static int MARKERS_MATERIALIZED_PER_FRAME = 50;
+    private final static double VIRTUALIZED_MARKERS_MARGIN = 0.5; // fraction of the visible span on each side
     public final static int ZONE_Z_INDEX = 2;
     public final static int POLYLINE_Z_INDEX = 2;
     public final static int LOCATION_MARKER_INDEX = 3;
@@ -90,11 +111,54 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
     private TileOverlay mTileOverlay;
     private LatLngBounds mapBounds;
     private final ConcurrentHashMap<Zone,Pair<Marker,Polygon>> zoneVsMarkerAndPolygonMap = new ConcurrentHashMap<>();
+    // zones by the Google ids of their polygon and label marker, for click dispatch
+    private final ConcurrentHashMap<String,Zone> zonesByGoogleId = new ConcurrentHashMap<>();
+    // all the custom markers, the ones shown on the map being the keys of customMarkersMap
+    private final Set<com.ubudu.gmaps.model.Marker> markerStore = Collections.newSetFromMap(new ConcurrentHashMap<com.ubudu.gmaps.model.Marker,Boolean>());
     private final ConcurrentHashMap<com.ubudu.gmaps.model.Marker,Marker> customMarkersMap = new ConcurrentHashMap<>();
+    // custom markers by the Google ids of their map markers, for click dispatch
+    private final ConcurrentHashMap<String,com.ubudu.gmaps.model.Marker> markersByGoogleId = new ConcurrentHashMap<>();
+    private final MarkerTagIndex markerTagIndex = new MarkerTagIndex();
+    private final MarkerTitleIndex markerTitleIndex = new MarkerTitleIndex();
+    private final MarkerSpatialIndex markerSpatialIndex = new MarkerSpatialIndex();
+    private final com.ubudu.gmaps.model.Marker.ChangeListener markerChangeListener = new com.ubudu.gmaps.model.Marker.ChangeListener() {
+        @Override
+        public void onTagAdded(com.ubudu.gmaps.model.Marker marker, String tag) {
+            markerTagIndex.addTag(marker, tag);
+        }
+
+        @Override
+        public void onTagRemoved(com.ubudu.gmaps.model.Marker marker, String tag) {
+            markerTagIndex.removeTag(marker, tag);
+        }
+
+        @Override
+        public void onTitleChanged(com.ubudu.gmaps.model.Marker marker, String oldTitle) {
+            markerTitleIndex.updateTitle(marker, oldTitle);
+        }
+    };
+
+    private boolean markersVirtualized;
+    private int maxVirtualizedMarkers = DEFAULT_MAX_VIRTUALIZED_MARKERS;
+    // region whose markers are shown while virtualized, null until the camera has moved
+    private LatLngBounds virtualizedMarkersBounds;
+    private final Set<com.ubudu.gmaps.model.Marker> virtualizedMarkersInRegion = new HashSet<>();
+    private final ArrayDeque<com.ubudu.gmaps.model.Marker> pendingMarkerMaterializations = new ArrayDeque<>();
+    private final Runnable materializeMarkersRunnable = new Runnable() {
+        @Override
+        public void run() {
+            materializePendingMarkers();
+        }
+    };
 
     private Map<Path,List<Polyline>> pathVsPolylinesMap = new HashMap<>();
 
     private TileOverlayOptions mTileOverlayOptions;
+    private CachingUrlTileProvider mTileProvider;
+    private final LevelTileOverlayManager levelTileOverlayManager = new LevelTileOverlayManager(TILES_OVERLAY_Z_INDEX);
+    private final TileScheduler tileScheduler = new TileScheduler();
+    private final CameraMotionPrefetcher cameraMotionPrefetcher = new CameraMotionPrefetcher();
+    private int tileSize = 256;
     private EventListener eventListener;
 
     // ---------------------------------------------------------------------------------------------
@@ -141,7 +205,28 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
                 mGoogleMap.setOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
                     @Override
                     public void onCameraIdle() {
-                        MapLayout.lastZoom = mGoogleMap.getCameraPosition().zoom;
+                        CameraPosition cameraPosition = mGoogleMap.getCameraPosition();
+                        LatLngBounds visibleBounds = mGoogleMap.getProjection().getVisibleRegion().latLngBounds;
+                        MapLayout.lastZoom = cameraPosition.zoom;
+                        updateTileViewport(visibleBounds, cameraPosition);
+                        updateVirtualizedMarkers(visibleBounds, true);
+                        cameraMotionPrefetcher.onCameraIdle();
+                        if (!levelTileOverlayManager.isEmpty())
+                            levelTileOverlayManager.onCameraIdle(visibleBounds, MapLayout.lastZoom);
+                    }
+                });
+
+                mGoogleMap.setOnCameraMoveListener(new GoogleMap.OnCameraMoveListener() {
+                    @Override
+                    public void onCameraMove() {
+                        // called on every frame of a camera move, the projection is queried once
+                        CameraPosition cameraPosition = mGoogleMap.getCameraPosition();
+                        LatLngBounds visibleBounds = mGoogleMap.getProjection().getVisibleRegion().latLngBounds;
+                        updateTileViewport(visibleBounds, cameraPosition);
+                        updateVirtualizedMarkers(visibleBounds, false);
+                        List<CachingUrlTileProvider> tileProviders = getVisibleTileProviders();
+                        if (!tileProviders.isEmpty())
+                            cameraMotionPrefetcher.onCameraMove(visibleBounds, cameraPosition.zoom, tileProviders);
                     }
                 });
 
@@ -152,6 +237,8 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
                     setTileOverlay();
                 }
 
+                levelTileOverlayManager.attach(mGoogleMap);
+
                 if (MapLayout.location != null) {
                     removeLocationMarker();
                     markLocation(MapLayout.location, MapLayout.accuracy);
@@ -288,6 +375,9 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
             }
             synchronized (zoneVsMarkerAndPolygonMap) {
                 zoneVsMarkerAndPolygonMap.put(zone, new Pair<>(marker, polygon));
+                zonesByGoogleId.put(polygon.getId(), zone);
+                if (marker != null)
+                    zonesByGoogleId.put(marker.getId(), zone);
             }
         } catch (Exception e) {
             Log.e(TAG, e.getMessage());
@@ -310,12 +400,7 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
         synchronized (zoneVsMarkerAndPolygonMap) {
             for (Zone zone : zoneVsMarkerAndPolygonMap.keySet()) {
                 if (zone.getName().equals(name)) {
-                    Pair<Marker, Polygon> markerAndPolygon = zoneVsMarkerAndPolygonMap.get(zone);
-                    Marker m = markerAndPolygon.first;
-                    Polygon p = markerAndPolygon.second;
-                    m.remove();
-                    p.remove();
-                    zoneVsMarkerAndPolygonMap.remove(zone);
+                    removeZoneFromMap(zone);
                     break;
                 }
             }
@@ -328,16 +413,29 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
     public void removeZones() {
         synchronized (zoneVsMarkerAndPolygonMap) {
             for (Zone zone : zoneVsMarkerAndPolygonMap.keySet()) {
-                Pair<Marker, Polygon> markerAndPolygon = zoneVsMarkerAndPolygonMap.get(zone);
-                Marker m = markerAndPolygon.first;
-                Polygon p = markerAndPolygon.second;
-                m.remove();
-                p.remove();
-                zoneVsMarkerAndPolygonMap.remove(zone);
+                removeZoneFromMap(zone);
             }
         }
     }
 
+    /**
+     * Removes the polygon and label marker of the zone. The caller must hold the zones lock.
+     *
+     * @param zone zone to be removed
+     */
+    private void removeZoneFromMap(Zone zone) {
+        Pair<Marker, Polygon> markerAndPolygon = zoneVsMarkerAndPolygonMap.remove(zone);
+        Marker m = markerAndPolygon.first;
+        Polygon p = markerAndPolygon.second;
+        // zones without label have no label marker
+        if (m != null) {
+            zonesByGoogleId.remove(m.getId());
+            m.remove();
+        }
+        zonesByGoogleId.remove(p.getId());
+        p.remove();
+    }
+
     /**
      *
      * @param bearing compass bearing
@@ -351,7 +449,8 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
 
     /**
      * Sets tile overlay with the given base url
-     * @param tilesBaseUrl tiles base url
+     * @param tilesBaseUrl tiles base url, see {@link TileUrlTemplate} for the supported placeholders.
+     *                     {y} is substituted with the TMS tile row
      * @param southWestBound south west overlay bound coordinates
      * @param northEastBound north east overlay bound coordinates
      */
@@ -361,40 +460,147 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
                 southWestBound,       // South west image corner
                 northEastBound);      // North east image corner
 
-        if(tilesBaseUrl!=null) {
-
-            mTileOverlayOptions = new CachingUrlTileProvider(mContext, 256, 256) {
-                @Override
-                public String getTileUrl(int x, int y, int zoom) {
-                    try {
-                        int ymax = 1 << zoom;
-                        int y_m = ymax - y - 1;
-                        LatLng s_w = Mercator.fromPixelTo2DCoordinates(x * 256, (y + 1) * 256, zoom);
-                        LatLng n_e = Mercator.fromPixelTo2DCoordinates((x + 1) * 256, y * 256, zoom);
-                        LatLngBounds tileBounds = new LatLngBounds(new LatLng(s_w.latitude, s_w.longitude), new LatLng(n_e.latitude, n_e.longitude));
-                        String noneUrl = "https://imagesd.ubudu.com/u_maps_tiles/none.png";
-                        if (MathUtils.intersects(tileBounds, mapBounds)) {
-                            return new URL(tilesBaseUrl.replace("{z}", "" + zoom).replace("{x}", "" + x)
-                                    .replace("{y}", "" + y_m)).toString();
-                        }
-                        return noneUrl;
-
-                    } catch (MalformedURLException e) {
-                        e.printStackTrace();
-                    }
-                    return null;
-                }
-            }.createTileOverlayOptions();
+        // a malformed url removes the previous overlay, same as no url
+        CachingUrlTileProvider tileProvider = tilesBaseUrl != null ? createUrlTileProvider(tilesBaseUrl, mapBounds) : null;
+
+        if(tileProvider!=null) {
+
+            mTileProvider = tileProvider;
+            mTileOverlayOptions = mTileProvider.createTileOverlayOptions();
 
             if(mGoogleMap!=null) {
                 setTileOverlay();
             }
         } else {
+            mTileProvider = null;
             mTileOverlayOptions = null;
             removeTilesOverlay();
         }
     }
 
+    /**
+     * Sets the size of the tiles of the url tile overlays added afterwards. With 512, high density tiles
+     * are requested from urls with a {r} placeholder, substituted with "@2x". Otherwise each tile is
+     * stitched from the four 256px tiles covering it at the next zoom level. High density tiles look
+     * sharp on high density screens.
+     * When stitching, the maximum zoom level of the tile source should be set on the
+     * {@link #getTileProvider() tile provider}, see {@link CachingUrlTileProvider#setStitchSourceTiles(boolean)},
+     * otherwise each tile of the deepest zoom level costs a failed request first.
+     *
+     * @param tileSize 256 (default) or 512
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize != 256 && tileSize != 512) {
+            Log.e(TAG, "Unsupported tile size: " + tileSize);
+            return;
+        }
+        this.tileSize = tileSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Adds tile overlay of a floor level. All the levels overlays stay on the map and only the one
+     * of the current level is visible, the first added level being the current one by default.
+     * Tiles of the levels adjacent to the current one are prefetched for the visible region so
+     * that switching levels with {@link #setLevel(int)} is immediate.
+     *
+     * @param level floor level
+     * @param tilesBaseUrl tiles base url, see {@link #addTileOverlay(String, LatLng, LatLng)}
+     * @param southWestBound south west overlay bound coordinates
+     * @param northEastBound north east overlay bound coordinates
+     * @return true if the overlay has been added, false if the url is malformed
+     */
+    public boolean addLevelTileOverlay(int level, String tilesBaseUrl, LatLng southWestBound, LatLng northEastBound) {
+        LatLngBounds bounds = new LatLngBounds(southWestBound, northEastBound);
+        UrlTemplateTileProvider tileProvider = createUrlTileProvider(tilesBaseUrl, bounds);
+        if (tileProvider == null)
+            return false;
+        // the current level and its two neighbours share the default memory budget
+        tileProvider.setMemoryCache(new TileMemoryCache((int) Math.min(Runtime.getRuntime().maxMemory() / 16 / 3, Integer.MAX_VALUE)));
+        levelTileOverlayManager.addLevel(level, tileProvider);
+        return true;
+    }
+
+    /**
+     * Shows the tile overlay of the given floor level and hides the other levels ones
+     *
+     * @param level floor level
+     * @return true if the level has been shown, false if it has no tile overlay
+     */
+    public boolean setLevel(int level) {
+        return levelTileOverlayManager.showLevel(level);
+    }
+
+    /**
+     *
+     * @return current floor level, null if no level tile overlay has been added
+     */
+    public Integer getLevel() {
+        return levelTileOverlayManager.getCurrentLevel();
+    }
+
+    /**
+     * Removes the tile overlays of all the floor levels
+     */
+    public void removeLevelTileOverlays() {
+        levelTileOverlayManager.removeLevels();
+    }
+
+    /**
+     * Sets tile overlay served by the given tile provider, e.g. a {@link MBTilesTileProvider} reading
+     * tiles from a local package file
+     * @param tileProvider tile provider of the overlay
+     * @param southWestBound south west overlay bound coordinates
+     * @param northEastBound north east overlay bound coordinates
+     */
+    public void addTileOverlay(TileProvider tileProvider, LatLng southWestBound, LatLng northEastBound) {
+
+        mapBounds = new LatLngBounds(
+                southWestBound,       // South west image corner
+                northEastBound);      // North east image corner
+
+        if(tileProvider!=null) {
+
+            mTileProvider = null;
+            mTileOverlayOptions = CachingUrlTileProvider.createTileOverlayOptions(tileProvider);
+
+            if(mGoogleMap!=null) {
+                setTileOverlay();
+            }
+        } else {
+            mTileProvider = null;
+            mTileOverlayOptions = null;
+            removeTilesOverlay();
+        }
+    }
+
+    /**
+     * Starts downloading all the tiles of the tile overlay set with {@link #addTileOverlay(String, LatLng, LatLng)}
+     * for the given zoom levels into its cache, e.g. to warm the whole venue over Wi-Fi.
+     *
+     * @param minZoom minimum zoom level
+     * @param maxZoom maximum zoom level
+     * @param listener listener of the prefetch progress, called on the main thread, may be null
+     * @return the running prefetch, which can be cancelled, or null if there is no tile overlay
+     */
+    public TilePrefetcher prefetchTiles(int minZoom, int maxZoom, TilePrefetcher.Listener listener) {
+        if (mTileProvider == null || mapBounds == null)
+            return null;
+        return new TilePrefetcher(mTileProvider, new TileRange(mapBounds, 256), minZoom, maxZoom, TILES_PREFETCH_CONCURRENCY)
+                .start(listener);
+    }
+
+    /**
+     *
+     * @return tile provider of the overlay set with {@link #addTileOverlay(String, LatLng, LatLng)}, null if there is none
+     */
+    public CachingUrlTileProvider getTileProvider() {
+        return mTileProvider;
+    }
+
     /**
      * Resets the map view by removing all markers, polygons and overlays
      */
@@ -407,6 +613,7 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
         removeZones();
         removeLocationMarker();
         removeTilesOverlay();
+        removeLevelTileOverlays();
         if (mGoogleMap != null)
             mGoogleMap.clear();
     }
@@ -425,24 +632,89 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
     }
 
     /**
-     * Adds a marker to the map
+     * Adds a marker to the map. When the markers are virtualized, the marker is kept and its Google
+     * marker only created while it is in the region around the visible one.
      *
      * @param marker marker to be added
      *
-     * @return true if marker has been successfully added, false otherwise
+     * @return Google marker of the added marker, null if it could not be added or is not shown yet
      */
     public Marker addMarker(com.ubudu.gmaps.model.Marker marker){
         if(marker.getLocation()==null)
             return null;
         if(marker.getTitle()==null)
             marker.setTitle("");
-        MarkerOptions markerOptions = marker.getMarkerOptionsStrategy().getNormalMarkerOptions();
-        markerOptions.position(marker.getLocation());
-        markerOptions.title(marker.getTitle());
-        Marker customMarker = addMarkerToGoogleMap(markerOptions);
-        if(customMarker!=null)
-            customMarkersMap.put(marker,customMarker);
-        return customMarker;
+        synchronized (customMarkersMap) {
+            Marker customMarker = null;
+            if (!markersVirtualized) {
+                customMarker = materializeMarker(marker, true);
+                if (customMarker == null)
+                    return null;
+            } else if (virtualizedMarkersBounds != null
+                    && virtualizedMarkersBounds.contains(marker.getLocation())
+                    && virtualizedMarkersInRegion.size() < maxVirtualizedMarkers) {
+                virtualizedMarkersInRegion.add(marker);
+                customMarker = materializeMarker(marker, true);
+            }
+            if (markerStore.add(marker))
+                indexMarker(marker);
+            return customMarker;
+        }
+    }
+
+    /**
+     * Turns marker virtualization on or off. Virtualized markers are all kept by the map layout but only
+     * the ones located in the visible region, plus a margin of half its size on each side, are shown as
+     * Google markers. The shown markers are updated incrementally when the camera moves, so that maps
+     * with tens of thousands of markers stay smooth. Turning virtualization off shows all the markers.
+     *
+     * @param virtualized true to virtualize the markers, false otherwise (default)
+     */
+    public void setMarkersVirtualized(boolean virtualized) {
+        synchronized (customMarkersMap) {
+            if (virtualized == markersVirtualized)
+                return;
+            markersVirtualized = virtualized;
+            virtualizedMarkersBounds = null;
+            if (virtualized) {
+                // the markers already shown are hidden by the next update if out of the region
+                virtualizedMarkersInRegion.addAll(customMarkersMap.keySet());
+                if (mGoogleMap != null)
+                    updateVirtualizedMarkers(mGoogleMap.getProjection().getVisibleRegion().latLngBounds, true);
+            } else {
+                removeCallbacks(materializeMarkersRunnable);
+                pendingMarkerMaterializations.clear();
+                virtualizedMarkersInRegion.clear();
+                for (com.ubudu.gmaps.model.Marker marker : markerStore) {
+                    if (!customMarkersMap.containsKey(marker))
+                        materializeMarker(marker, false);
+                }
+            }
+        }
+    }
+
+    public boolean isMarkersVirtualized() {
+        return markersVirtualized;
+    }
+
+    /**
+     * Sets the maximum number of markers shown at once when the markers are virtualized. The markers
+     * nearest to the center of the visible region are shown first.
+     *
+     * @param maxMarkers maximum number of shown markers, 1000 by default
+     * @throws IllegalArgumentException if maxMarkers is lower than 1
+     */
+    public void setMaxVirtualizedMarkers(int maxMarkers) {
+        if (maxMarkers < 1)
+            throw new IllegalArgumentException("maxMarkers must be at least 1: " + maxMarkers);
+        maxVirtualizedMarkers = maxMarkers;
+    }
+
+    /**
+     * @return number of markers currently shown as Google markers
+     */
+    public int getMaterializedMarkerCount() {
+        return customMarkersMap.size();
     }
 
     /**
@@ -510,10 +782,20 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
     public int removeAllMarkers() {
         int removedCount = 0;
         synchronized (customMarkersMap) {
-            for (com.ubudu.gmaps.model.Marker marker : customMarkersMap.keySet()) {
-                customMarkersMap.get(marker).remove();
+            for (Marker googleMarker : customMarkersMap.values())
+                googleMarker.remove();
+            for (com.ubudu.gmaps.model.Marker marker : markerStore) {
+                marker.setChangeListener(null);
                 removedCount++;
             }
+            removeCallbacks(materializeMarkersRunnable);
+            pendingMarkerMaterializations.clear();
+            virtualizedMarkersInRegion.clear();
+            markerStore.clear();
+            markerTagIndex.clear();
+            markerTitleIndex.clear();
+            markerSpatialIndex.clear();
+            markersByGoogleId.clear();
             customMarkersMap.clear();
         }
         return removedCount;
@@ -527,9 +809,8 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
      */
     public boolean removeMarker(com.ubudu.gmaps.model.Marker marker) {
         synchronized (customMarkersMap) {
-            if (customMarkersMap.containsKey(marker)){
-                customMarkersMap.get(marker).remove();
-                customMarkersMap.remove(marker);
+            if (markerStore.contains(marker)){
+                removeMarkerFromMap(marker);
                 return true;
             }
         }
@@ -544,17 +825,10 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
      */
     public boolean removeMarker(Marker marker) {
         synchronized (customMarkersMap) {
-            if (customMarkersMap.containsValue(marker)){
-                Iterator<com.ubudu.gmaps.model.Marker> iterator = customMarkersMap.keySet().iterator();
-                while(iterator.hasNext()) {
-                    com.ubudu.gmaps.model.Marker m = iterator.next();
-                    Marker googleMarker = customMarkersMap.get(m);
-                    if(googleMarker.equals(marker)) {
-                        googleMarker.remove();
-                        iterator.remove();
-                        return true;
-                    }
-                }
+            com.ubudu.gmaps.model.Marker m = markersByGoogleId.get(marker.getId());
+            if (m != null) {
+                removeMarkerFromMap(m);
+                return true;
             }
         }
         return false;
@@ -573,29 +847,9 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
 
         int removedCount = 0;
         synchronized (customMarkersMap) {
-            for (com.ubudu.gmaps.model.Marker marker : customMarkersMap.keySet()) {
-
-                boolean matchingTags = true;
-                if (searchPattern.getTags().size() > 0) {
-                    for (String tag : searchPattern.getTags()) {
-                        if (!marker.getTags().contains(tag)) {
-                            matchingTags = false;
-                            break;
-                        }
-                    }
-                }
-
-                boolean matchingTitle = true;
-                if (!searchPattern.getTitle().equals("")) {
-                    if (!marker.getTitle().startsWith(searchPattern.getTitle()))
-                        matchingTitle = false;
-                }
-
-                if (matchingTitle && matchingTags) {
-                    customMarkersMap.get(marker).remove();
-                    customMarkersMap.remove(marker);
-                    removedCount++;
-                }
+            for (com.ubudu.gmaps.model.Marker marker : findMatchingMarkers(searchPattern)) {
+                removeMarkerFromMap(marker);
+                removedCount++;
             }
         }
         return removedCount;
@@ -603,36 +857,74 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
 
     /**
      * Note: To get all markers as is put empty 'new MarkerSearchPattern()' as argument.
+     * When the markers are virtualized, the Google markers of the markers not shown are null.
      *
      * @param searchPattern pattern
      * @return markers found according to the given search pattern
      */
     public Map<com.ubudu.gmaps.model.Marker, Marker> findMarkers(MarkerSearchPattern searchPattern) {
 
-        if(searchPattern.getTags().size()==0 && searchPattern.getTitle().equals(""))
-            return new HashMap<>(customMarkersMap);
-
-        Map<com.ubudu.gmaps.model.Marker,Marker> markersMatchingTag = new HashMap<>(customMarkersMap);
-        if(searchPattern.getTags().size()>0)
-            markersMatchingTag = getMarkersWithTags(searchPattern.getTags());
+        Map<com.ubudu.gmaps.model.Marker, Marker> result = new HashMap<>();
+        synchronized (customMarkersMap) {
+            if (searchPattern.getTags().size() == 0 && searchPattern.getTitle().equals("")) {
+                for (com.ubudu.gmaps.model.Marker marker : markerStore)
+                    result.put(marker, customMarkersMap.get(marker));
+                return result;
+            }
+            for (com.ubudu.gmaps.model.Marker marker : findMatchingMarkers(searchPattern))
+                result.put(marker, customMarkersMap.get(marker));
+        }
+        return result;
+    }
 
-        if(searchPattern.getTitle().equals(""))
-            return markersMatchingTag;
+    /**
+     * @param bounds bounds to look in
+     * @return markers located within the given bounds
+     */
+    public Map<com.ubudu.gmaps.model.Marker, Marker> findMarkersInBounds(LatLngBounds bounds) {
+        return findMarkersInBounds(bounds, new MarkerSearchPattern());
+    }
 
-        List<com.ubudu.gmaps.model.Marker> markersToRemoveFromResult = new ArrayList<>();
-        for (com.ubudu.gmaps.model.Marker marker : markersMatchingTag.keySet()) {
-            if (!marker.getTitle().startsWith(searchPattern.getTitle())) {
-                markersToRemoveFromResult.add(marker);
+    /**
+     * @param bounds bounds to look in
+     * @param searchPattern pattern
+     * @return markers located within the given bounds found according to the given search pattern
+     */
+    public Map<com.ubudu.gmaps.model.Marker, Marker> findMarkersInBounds(LatLngBounds bounds, MarkerSearchPattern searchPattern) {
+        Map<com.ubudu.gmaps.model.Marker, Marker> result = new HashMap<>();
+        synchronized (customMarkersMap) {
+            for (com.ubudu.gmaps.model.Marker marker : markerSpatialIndex.findInBounds(bounds)) {
+                if (matchesSearchPattern(marker, searchPattern))
+                    result.put(marker, customMarkersMap.get(marker));
             }
         }
+        return result;
+    }
+
+    /**
+     * @param center center of the circle to look in
+     * @param meters radius of the circle in meters
+     * @return markers located within the given distance from the given center
+     */
+    public Map<com.ubudu.gmaps.model.Marker, Marker> findMarkersWithin(LatLng center, double meters) {
+        return findMarkersWithin(center, meters, new MarkerSearchPattern());
+    }
 
-        for (com.ubudu.gmaps.model.Marker marker : markersToRemoveFromResult) {
-            if (!marker.getTitle().startsWith(searchPattern.getTitle())) {
-                markersMatchingTag.remove(marker);
+    /**
+     * @param center center of the circle to look in
+     * @param meters radius of the circle in meters
+     * @param searchPattern pattern
+     * @return markers located within the given distance from the given center found according to the given search pattern
+     */
+    public Map<com.ubudu.gmaps.model.Marker, Marker> findMarkersWithin(LatLng center, double meters, MarkerSearchPattern searchPattern) {
+        Map<com.ubudu.gmaps.model.Marker, Marker> result = new HashMap<>();
+        synchronized (customMarkersMap) {
+            for (com.ubudu.gmaps.model.Marker marker : markerSpatialIndex.findWithin(center, meters)) {
+                if (matchesSearchPattern(marker, searchPattern))
+                    result.put(marker, customMarkersMap.get(marker));
             }
         }
-
-        return markersMatchingTag;
+        return result;
     }
 
     /**
@@ -785,41 +1077,330 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
     private List<Marker> getMarkersWithTitle(String title) {
         List<Marker> result = new ArrayList<>();
         synchronized (customMarkersMap) {
-            for (com.ubudu.gmaps.model.Marker marker : customMarkersMap.keySet()) {
-                if (marker.getTitle().equals(title))
-                    result.add(customMarkersMap.get(marker));
+            for (com.ubudu.gmaps.model.Marker marker : markerTitleIndex.find(title)) {
+                Marker googleMarker = customMarkersMap.get(marker);
+                if (googleMarker != null)
+                    result.add(googleMarker);
             }
         }
         return result;
     }
 
     /**
+     * Looks the markers up in the title and tag indexes. The caller must hold the markers lock.
      *
-     * @param tags tags to look for
-     * @return markers matching the given tag
+     * @param searchPattern pattern with a title or at least one tag
+     * @return markers matching the given pattern
      */
-    private Map<com.ubudu.gmaps.model.Marker, Marker> getMarkersWithTags(List<String> tags){
-        Map<com.ubudu.gmaps.model.Marker, Marker> result = new HashMap<>();
+    private Collection<com.ubudu.gmaps.model.Marker> findMatchingMarkers(MarkerSearchPattern searchPattern) {
+        if (searchPattern.getTitle().equals(""))
+            return markerTagIndex.find(searchPattern.getTags());
+
+        List<com.ubudu.gmaps.model.Marker> markersMatchingTitle = markerTitleIndex.findByPrefix(searchPattern.getTitle());
+        if (searchPattern.getTags().size() == 0)
+            return markersMatchingTitle;
+
+        // only the markers matching the title are checked against the tags
+        List<com.ubudu.gmaps.model.Marker> result = new ArrayList<>();
+        for (com.ubudu.gmaps.model.Marker marker : markersMatchingTitle) {
+            if (matchesSearchPattern(marker, searchPattern))
+                result.add(marker);
+        }
+        return result;
+    }
+
+    /**
+     * @param marker marker
+     * @param searchPattern pattern
+     * @return true if the marker title starts with the pattern title and the marker has all the pattern tags
+     */
+    private static boolean matchesSearchPattern(com.ubudu.gmaps.model.Marker marker, MarkerSearchPattern searchPattern) {
+        if (!marker.getTitle().startsWith(searchPattern.getTitle()))
+            return false;
+        for (String tag : searchPattern.getTags()) {
+            if (!marker.hasTag(tag))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the Google marker of the custom marker and unindexes it. The caller must hold the markers lock.
+     *
+     * @param marker custom marker to be removed
+     */
+    private void removeMarkerFromMap(com.ubudu.gmaps.model.Marker marker) {
+        dematerializeMarker(marker);
+        markerStore.remove(marker);
+        virtualizedMarkersInRegion.remove(marker);
+        unindexMarker(marker);
+    }
+
+    /**
+     * Creates the Google marker of the custom marker. The caller must hold the markers lock.
+     *
+     * @param marker custom marker to be shown
+     * @param added true if the marker is being added, it is then shown with its normal options, false if it is
+     *              shown after being virtualized, it then keeps the highlighted options if it is highlighted
+     * @return Google marker or null if the map is not ready
+     */
+    private Marker materializeMarker(com.ubudu.gmaps.model.Marker marker, boolean added) {
+        MarkerOptions markerOptions = !added && marker.isHighLighted()
+                ? marker.getMarkerOptionsStrategy().getHighlightedMarkerOptions()
+                : marker.getMarkerOptionsStrategy().getNormalMarkerOptions();
+        markerOptions.position(marker.getLocation());
+        markerOptions.title(marker.getTitle());
+        Marker customMarker = addMarkerToGoogleMap(markerOptions);
+        if (customMarker != null) {
+            Marker previousMarker = customMarkersMap.put(marker, customMarker);
+            if (previousMarker != null)
+                markersByGoogleId.remove(previousMarker.getId());
+            markersByGoogleId.put(customMarker.getId(), marker);
+        }
+        return customMarker;
+    }
+
+    /**
+     * Removes the Google marker of the custom marker, if shown, keeping the custom marker. The caller must hold the markers lock.
+     *
+     * @param marker custom marker to be hidden
+     */
+    private void dematerializeMarker(com.ubudu.gmaps.model.Marker marker) {
+        Marker googleMarker = customMarkersMap.remove(marker);
+        if (googleMarker != null) {
+            markersByGoogleId.remove(googleMarker.getId());
+            googleMarker.remove();
+        }
+    }
+
+    /**
+     * Diffs the virtualized markers shown against the ones located in the region around the visible one:
+     * the Google markers of the markers which left the region are removed right away and the ones of the
+     * markers which entered it are created a few per frame, the visible ones first.
+     *
+     * @param visibleBounds bounds of the visible region
+     * @param force false to update only if the visible region is no longer within the region shown,
+     *              as while the camera moves
+     */
+    private void updateVirtualizedMarkers(LatLngBounds visibleBounds, boolean force) {
+        if (!markersVirtualized)
+            return;
         synchronized (customMarkersMap) {
-            for (com.ubudu.gmaps.model.Marker marker : customMarkersMap.keySet()) {
-                boolean markerMatchesTags = true;
-                for (String tag : tags) {
-                    if (!marker.getTags().contains(tag)) {
-                        markerMatchesTags = false;
-                        break;
-                    }
+            if (!force && virtualizedMarkersBounds != null
+                    && virtualizedMarkersBounds.contains(visibleBounds.southwest)
+                    && virtualizedMarkersBounds.contains(visibleBounds.northeast))
+                return;
+            virtualizedMarkersBounds = expandBounds(visibleBounds, VIRTUALIZED_MARKERS_MARGIN);
+            List<com.ubudu.gmaps.model.Marker> markersInRegion = markerSpatialIndex.findInBounds(virtualizedMarkersBounds);
+            if (markersInRegion.size() > maxVirtualizedMarkers) {
+                markersInRegion = findNearestMarkers(markersInRegion, visibleBounds.getCenter(), maxVirtualizedMarkers);
+            }
+
+            Set<com.ubudu.gmaps.model.Marker> region = new HashSet<>(markersInRegion);
+            Iterator<com.ubudu.gmaps.model.Marker> iterator = virtualizedMarkersInRegion.iterator();
+            while (iterator.hasNext()) {
+                com.ubudu.gmaps.model.Marker marker = iterator.next();
+                if (!region.contains(marker)) {
+                    iterator.remove();
+                    dematerializeMarker(marker);
                 }
-                if (markerMatchesTags)
-                    result.put(marker, customMarkersMap.get(marker));
             }
+
+            List<com.ubudu.gmaps.model.Marker> enteringMarginMarkers = new ArrayList<>();
+            for (com.ubudu.gmaps.model.Marker marker : markersInRegion) {
+                if (!virtualizedMarkersInRegion.add(marker))
+                    continue;
+                if (visibleBounds.contains(marker.getLocation()))
+                    pendingMarkerMaterializations.add(marker);
+                else
+                    enteringMarginMarkers.add(marker);
+            }
+            pendingMarkerMaterializations.addAll(enteringMarginMarkers);
+            if (!pendingMarkerMaterializations.isEmpty()) {
+                removeCallbacks(materializeMarkersRunnable);
+                postOnAnimation(materializeMarkersRunnable);
+            }
+        }
+    }
+
+    /**
+     * Creates the Google markers of the next pending virtualized markers, posting itself again to the
+     * next frame until none is pending
+     */
+    private void materializePendingMarkers() {
+        synchronized (customMarkersMap) {
+            int materializedCount = 0;
+            while (materializedCount < MARKERS_MATERIALIZED_PER_FRAME && !pendingMarkerMaterializations.isEmpty()) {
+                com.ubudu.gmaps.model.Marker marker = pendingMarkerMaterializations.poll();
+                // the marker may have left the region or been removed since it was queued
+                if (virtualizedMarkersInRegion.contains(marker) && !customMarkersMap.containsKey(marker)) {
+                    materializeMarker(marker, false);
+                    materializedCount++;
+                }
+            }
+            if (!pendingMarkerMaterializations.isEmpty())
+                postOnAnimation(materializeMarkersRunnable);
+        }
+    }
+
+    /**
+     * @param markers markers to select from
+     * @param center center
+     * @param count number of markers to select, lower than the number of markers
+     * @return new list of the given number of markers nearest to the center, in no particular order
+     */
+    private static List<com.ubudu.gmaps.model.Marker> findNearestMarkers(List<com.ubudu.gmaps.model.Marker> markers, LatLng center, int count) {
+        // equirectangular approximation, good enough to rank the markers of a region
+        double longitudeScale = Math.cos(Math.toRadians(center.latitude));
+        double[] distances = new double[markers.size()];
+        for (int i = 0; i < distances.length; i++) {
+            LatLng location = markers.get(i).getLocation();
+            double dLat = location.latitude - center.latitude;
+            double dLng = (location.longitude - center.longitude) * longitudeScale;
+            distances[i] = dLat * dLat + dLng * dLng;
+        }
+        // the markers up to the count-th nearest are kept, which a selection finds without sorting them all
+        double maxDistance = select(distances.clone(), count - 1);
+        List<com.ubudu.gmaps.model.Marker> result = new ArrayList<>(count);
+        for (int i = 0; i < distances.length && result.size() < count; i++) {
+            if (distances[i] < maxDistance)
+                result.add(markers.get(i));
+        }
+        for (int i = 0; i < distances.length && result.size() < count; i++) {
+            if (distances[i] == maxDistance)
+                result.add(markers.get(i));
         }
         return result;
     }
 
+    /**
+     * Quickselect, reordering the values
+     *
+     * @param values values to select from
+     * @param rank rank of the value to find, 0 being the lowest
+     * @return value of the given rank
+     */
+    private static double select(double[] values, int rank) {
+        int left = 0;
+        int right = values.length - 1;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot)
+                    i++;
+                while (values[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    double value = values[i];
+                    values[i++] = values[j];
+                    values[j--] = value;
+                }
+            }
+            if (rank <= j)
+                right = j;
+            else if (rank >= i)
+                left = i;
+            else
+                break;
+        }
+        return values[rank];
+    }
+
+    /**
+     * @param bounds bounds to expand
+     * @param margin margin added on each side, as a fraction of the bounds span
+     * @return expanded bounds
+     */
+    private static LatLngBounds expandBounds(LatLngBounds bounds, double margin) {
+        double latitudeSpan = bounds.northeast.latitude - bounds.southwest.latitude;
+        double longitudeSpan = bounds.northeast.longitude - bounds.southwest.longitude;
+        if (longitudeSpan < 0)
+            longitudeSpan += 360;
+        double south = Math.max(-90, bounds.southwest.latitude - latitudeSpan * margin);
+        double north = Math.min(90, bounds.northeast.latitude + latitudeSpan * margin);
+        if (longitudeSpan * (1 + 2 * margin) >= 360)
+            return new LatLngBounds(new LatLng(south, -180), new LatLng(north, Math.nextAfter(180d, 0)));
+        return new LatLngBounds(new LatLng(south, bounds.southwest.longitude - longitudeSpan * margin),
+                new LatLng(north, bounds.northeast.longitude + longitudeSpan * margin));
+    }
+
+    /**
+     * Adds the marker to the indexes and keeps them up to date with its changes
+     *
+     * @param marker marker added to the map
+     */
+    private void indexMarker(com.ubudu.gmaps.model.Marker marker) {
+        markerTagIndex.add(marker);
+        markerTitleIndex.add(marker);
+        markerSpatialIndex.add(marker);
+        marker.setChangeListener(markerChangeListener);
+    }
+
+    /**
+     * @param marker marker removed from the map
+     */
+    private void unindexMarker(com.ubudu.gmaps.model.Marker marker) {
+        marker.setChangeListener(null);
+        markerTagIndex.remove(marker);
+        markerTitleIndex.remove(marker);
+        markerSpatialIndex.remove(marker);
+    }
+
+    /**
+     *
+     * @param tilesBaseUrl tiles base url
+     * @param bounds bounds of the tiles
+     * @return tile provider for the given url or null if the url is malformed
+     */
+    private UrlTemplateTileProvider createUrlTileProvider(String tilesBaseUrl, LatLngBounds bounds) {
+        TileUrlTemplate urlTemplate = new TileUrlTemplate(tilesBaseUrl, true);
+        try {
+            new URL(urlTemplate.render(0, 0, 0));
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Cannot add tile overlay. Malformed tiles url: " + tilesBaseUrl);
+            return null;
+        }
+        UrlTemplateTileProvider tileProvider = new UrlTemplateTileProvider(mContext, tileSize, tileSize, urlTemplate, new TileRange(bounds, 256));
+        if (tileSize > 256) {
+            if (urlTemplate.hasScalePlaceholder())
+                urlTemplate.setScaleSuffix("@" + tileSize / 256 + "x");
+            else
+                tileProvider.setStitchSourceTiles(true);
+        }
+        tileProvider.setScheduler(tileScheduler);
+        return tileProvider;
+    }
+
+    /**
+     * Lets the tile scheduler fetch the visible tiles first and drop the ones which went off screen
+     *
+     * @param visibleBounds bounds of the visible region
+     * @param cameraPosition camera position
+     */
+    private void updateTileViewport(LatLngBounds visibleBounds, CameraPosition cameraPosition) {
+        tileScheduler.setViewport(visibleBounds, cameraPosition.target, cameraPosition.zoom);
+    }
+
+    /**
+     * @return providers of the url tile overlays currently shown
+     */
+    private List<CachingUrlTileProvider> getVisibleTileProviders() {
+        List<CachingUrlTileProvider> tileProviders = new ArrayList<>(2);
+        if (mTileProvider != null && mTileOverlay != null)
+            tileProviders.add(mTileProvider);
+        Integer level = levelTileOverlayManager.getCurrentLevel();
+        if (level != null)
+            tileProviders.add(levelTileOverlayManager.getTileProvider(level));
+        return tileProviders;
+    }
+
     /**
      * Sets the tile overlay to Google Map
      */
     private void setTileOverlay() {
+        removeTilesOverlay();
         mTileOverlay = mGoogleMap.addTileOverlay(mTileOverlayOptions);
         mTileOverlay.setZIndex(TILES_OVERLAY_Z_INDEX);
     }
@@ -852,6 +1433,7 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
     private void removeTilesOverlay() {
         if (mTileOverlay != null)
             mTileOverlay.remove();
+        mTileOverlay = null;
     }
 
     /**
@@ -967,6 +1549,8 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
      */
     private void refreshMarker(com.ubudu.gmaps.model.Marker marker) {
         Marker m = customMarkersMap.get(marker);
+        if (m == null)
+            return;
         MarkerOptions mO = marker.getOptions();
         m.setIcon(mO.getIcon());
         m.setZIndex(mO.getZIndex());
@@ -1004,6 +1588,8 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
 
         //update label marker
         Marker m = markerAndPolygon.first;
+        if (m == null)
+            return;
         ZoneLabelOptions zoneLabelOptions = zoneOptions.getZoneLabelOptions();
         MarkerOptions mO = zoneLabelOptions.getLabelMarkerOptions();
 
@@ -1047,14 +1633,12 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
 
     @Override
     public void onPolygonClick(Polygon polygon) {
-        for (Zone zone : zoneVsMarkerAndPolygonMap.keySet()) {
-            if (zoneVsMarkerAndPolygonMap.get(zone).second.equals(polygon)) {
-                zone.setHighLighted(!zone.isHighLighted());
-                refreshZone(zone);
-                if (eventListener != null)
-                    eventListener.onZoneClicked(zone, polygon);
-                break;
-            }
+        Zone zone = zonesByGoogleId.get(polygon.getId());
+        if (zone != null) {
+            zone.setHighLighted(!zone.isHighLighted());
+            refreshZone(zone);
+            if (eventListener != null)
+                eventListener.onZoneClicked(zone, polygon);
         }
     }
 
@@ -1065,23 +1649,22 @@ public class MapLayout extends RelativeLayout implements GoogleMap.OnPolygonClic
             return true;
 
         // check if zone label marker
-        for (Zone zone : zoneVsMarkerAndPolygonMap.keySet()) {
-            if (zone.getName().equals(marker.getTitle())) {
-                Pair<Marker, Polygon> markerAndPolygon = zoneVsMarkerAndPolygonMap.get(zone);
+        Zone zone = zonesByGoogleId.get(marker.getId());
+        if (zone != null) {
+            Pair<Marker, Polygon> markerAndPolygon = zoneVsMarkerAndPolygonMap.get(zone);
+            if (markerAndPolygon != null)
                 onPolygonClick(markerAndPolygon.second);
-                return true;
-            }
+            return true;
         }
 
         // check marker click
-        for (com.ubudu.gmaps.model.Marker myMarker : customMarkersMap.keySet()) {
-            if (customMarkersMap.get(myMarker).equals(marker)) {
-                myMarker.setHighLighted(!myMarker.isHighLighted());
-                refreshMarker(myMarker);
-                if (eventListener != null)
-                    eventListener.onMarkerClicked(myMarker, marker);
-                return !myMarker.getMarkerOptionsStrategy().isInforWindowEnabled();
-            }
+        com.ubudu.gmaps.model.Marker myMarker = markersByGoogleId.get(marker.getId());
+        if (myMarker != null) {
+            myMarker.setHighLighted(!myMarker.isHighLighted());
+            refreshMarker(myMarker);
+            if (eventListener != null)
+                eventListener.onMarkerClicked(myMarker, marker);
+            return !myMarker.getMarkerOptionsStrategy().isInforWindowEnabled();
         }
         return false;
     }
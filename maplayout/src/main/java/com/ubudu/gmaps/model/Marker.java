@@ -18,6 +18,7 @@ public class Marker {
     private MarkerOptionsStrategy markerOptionsStrategy;
     private boolean isHighLighted;
     private List<String> tags;
+    private ChangeListener changeListener;
 
     public Marker(String title, LatLng location) {
         tags = new ArrayList<>();
@@ -27,11 +28,24 @@ public class Marker {
     }
 
     public void setTags(List<String> tags) {
+        List<String> oldTags = this.tags;
         this.tags = new ArrayList<>(tags);
+        if (changeListener != null) {
+            for (String tag : oldTags) {
+                if (!this.tags.contains(tag))
+                    changeListener.onTagRemoved(this, tag);
+            }
+            for (String tag : this.tags) {
+                if (!oldTags.contains(tag))
+                    changeListener.onTagAdded(this, tag);
+            }
+        }
     }
 
     public void addTag(String tag) {
         tags.add(tag);
+        if (changeListener != null)
+            changeListener.onTagAdded(this, tag);
     }
 
     public boolean hasTag(String tag){
@@ -39,19 +53,39 @@ public class Marker {
     }
 
     public void removeTag(String tag){
-        tags.remove(tag);
+        // the tag may have been added more than once
+        if (tags.remove(tag) && !tags.contains(tag) && changeListener != null)
+            changeListener.onTagRemoved(this, tag);
     }
 
     public List<String> getTags(){
         return tags;
     }
 
+    /**
+     * Sets the listener notified of the changes of the marker, used by the map layout to keep its
+     * marker indexes up to date. Tags must then be changed through the marker methods only,
+     * not through the list returned by {@link #getTags()}.
+     *
+     * @param changeListener listener, null to remove
+     */
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    public ChangeListener getChangeListener() {
+        return changeListener;
+    }
+
     public void setMarkerOptionsStrategy(MarkerOptionsStrategy markerOptionsStrategy) {
         this.markerOptionsStrategy = markerOptionsStrategy;
     }
 
     public void setTitle(String title) {
+        String oldTitle = this.title;
         this.title = title;
+        if (changeListener != null)
+            changeListener.onTitleChanged(this, oldTitle);
     }
 
     public String getTitle() {
@@ -97,4 +131,13 @@ public class Marker {
         } else
             return false;
     }
+
+    /**
+     * Listener of the changes of a marker
+     */
+    public interface ChangeListener {
+        void onTagAdded(Marker marker, String tag);
+        void onTagRemoved(Marker marker, String tag);
+        void onTitleChanged(Marker marker, String oldTitle);
+    }
 }
@@ -0,0 +1,72 @@
+package com.ubudu.gmaps.util;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>{@link TileSource} of tiles bundled in the application assets, so that the venue can be displayed
+ * without any network access, e.g. on the first launch.</p>
+ * <p>Tiles are read through an {@link AssetFileDescriptor} straight from the APK into a buffer of their
+ * exact size, without any decompression or intermediate copy. This requires the tiles to be stored
+ * uncompressed in the APK, which is the default for PNG and JPEG files. Other files are read through a
+ * regular asset stream, unless excluded from compression with <i>aaptOptions { noCompress 'webp' }</i>.</p>
+ * <p>Usage example:<pre>
+ tileProvider.addTileSource(new AssetTileSource(context.getAssets(), new TileUrlTemplate("tiles/{z}/{x}/{y}.png")));
+ * </pre></p>
+ */
+public class AssetTileSource implements TileSource {
+
+    private final AssetManager mAssetManager;
+    private final TileUrlTemplate mPathTemplate;
+    // tiles known not to be bundled, so that the assets are looked up once per tile only
+    private final Set<Long> mMissingTiles = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /**
+     * @param assetManager asset manager of the application
+     * @param pathTemplate template of the assets paths of the tiles
+     */
+    public AssetTileSource(AssetManager assetManager, TileUrlTemplate pathTemplate) {
+        mAssetManager = assetManager;
+        mPathTemplate = pathTemplate;
+    }
+
+    @Override
+    public byte[] getTileImage(int x, int y, int z) throws IOException {
+        long key = TileKey.of(x, y, z);
+        if (mMissingTiles.contains(key)) {
+            return null;
+        }
+        String path = mPathTemplate.render(x, y, z);
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = mAssetManager.openFd(path);
+        } catch (FileNotFoundException e) {
+            // the asset is either missing or compressed
+            return readCompressedAsset(key, path);
+        }
+        try {
+            return HttpTileFetcher.readFully(descriptor.createInputStream(), (int) descriptor.getLength());
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    private byte[] readCompressedAsset(long key, String path) throws IOException {
+        try {
+            return HttpTileFetcher.readFully(mAssetManager.open(path), -1);
+        } catch (FileNotFoundException e) {
+            mMissingTiles.add(key);
+            return null;
+        }
+    }
+
+    public TileUrlTemplate getPathTemplate() {
+        return mPathTemplate;
+    }
+}
@@ -2,19 +2,45 @@ package com.ubudu.gmaps.util;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Process;
 
 import com.google.android.gms.maps.model.Tile;
 import com.google.android.gms.maps.model.TileOverlayOptions;
 import com.google.android.gms.maps.model.TileProvider;
-import com.nostra13.universalimageloader.core.DisplayImageOptions;
-import com.nostra13.universalimageloader.core.ImageLoader;
-import com.nostra13.universalimageloader.core.ImageLoaderConfiguration;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Google Maps Android V2 tile overlay provider for cached URL tiles. Caches in memory and/or on disk.</p>
- * <p>Uses the famous <a href="https://github.com/nostra13/Android-Universal-Image-Loader/">Android Universal Image Loader</a> library for downloading and caching.</p>
+ * <p>Tiles are looked up in the memory cache, then in the {@link #addTileSource(TileSource) tile sources}, e.g. tiles
+ * bundled in the assets, then in the disk cache, and finally downloaded.</p>
+ * <p>Tiles are downloaded with a {@link TileFetcher}, {@link HttpTileFetcher} by default, kept in a {@link TileDiskCache}
+ * exactly as served and handed to the map as is, without being decoded.
+ * Tiles older than {@link #setTileMaxAge(long) the maximum age}, in memory or on disk, are served as they are
+ * while being revalidated in the background with conditional requests.
+ * Tiles deeper than {@link #setMaxSourceZoom(int) the maximum zoom level of the tile source} are synthesized locally.
+ * Double density tiles can be {@link #setStitchSourceTiles(boolean) stitched} from the tiles of the next zoom level.
+ * Recently used tiles are also held in a {@link TileMemoryCache}.
+ * Tiles which could not be loaded are not requested again for a while, see {@link TileNegativeCache}.
+ * Network fetches can be ordered by their distance to the camera with a {@link TileScheduler}.
+ * Each stage of the pipeline is timed in the {@link #getMetrics() metrics} of the provider.</p>
  * <p>Usage example:<pre>
  googleMap.addTileOverlay(new CachingUrlTileProvider(this, 256, 256) {
 @Override
@@ -28,52 +54,946 @@ public abstract class CachingUrlTileProvider implements TileProvider {
 
     private final int mTileWidth;
     private final int mTileHeight;
-    private final DisplayImageOptions mOptions;
+    private static final String DISK_CACHE_DIRECTORY = "ubudu_map_tiles";
+    private static final int BACKGROUND_THREADS = 2;
+    private static final int BACKGROUND_QUEUE_SIZE = 256;
+    private static final long DEFAULT_TILE_MAX_AGE = 24 * 60 * 60 * 1000; // ms
+    private static final int MAX_OVERZOOM_LEVELS = 8;
+    private static TileDiskCache sDefaultDiskCache;
+    private static ThreadPoolExecutor sBackgroundExecutor;
+
+    private final TileFetcher mFetcher;
+    private final TileMetrics mMetrics = new TileMetrics();
+    private final SingleFlight<Long, byte[]> mInFlightTiles = new SingleFlight<>();
+    private volatile TileMemoryCache mMemoryCache = new TileMemoryCache();
+    private volatile TileDiskCache mDiskCache;
+    private volatile long mTileMaxAge = DEFAULT_TILE_MAX_AGE;
+    private final ConcurrentHashMap<String, Boolean> mRevalidatingTiles = new ConcurrentHashMap<>();
+    private final AtomicLong mRevalidationCount = new AtomicLong();
+    private final AtomicLong mNotModifiedCount = new AtomicLong();
+    private final AtomicLong mOverzoomedTileCount = new AtomicLong();
+    private volatile int mMaxSourceZoom = Integer.MAX_VALUE;
+    private volatile TileStorageFormat mStorageFormat = TileStorageFormat.original();
+    private volatile TileScheduler mScheduler;
+    private volatile boolean mStitchSourceTiles;
+    private final List<SourceTier> mTileSources = new CopyOnWriteArrayList<>();
+    private volatile TileNegativeCache mNegativeCache = new TileNegativeCache();
 
     public CachingUrlTileProvider(Context ctx, int mTileWidth, int mTileHeight) {
+        this(ctx, mTileWidth, mTileHeight, new HttpTileFetcher());
+    }
+
+    /**
+     * @param ctx context
+     * @param mTileWidth tile width
+     * @param mTileHeight tile height
+     * @param fetcher fetcher downloading the tiles
+     */
+    public CachingUrlTileProvider(Context ctx, int mTileWidth, int mTileHeight, TileFetcher fetcher) {
         this.mTileWidth = mTileWidth;
         this.mTileHeight = mTileHeight;
+        mFetcher = fetcher;
+        mDiskCache = getDefaultDiskCache(ctx);
+    }
 
-        // if ImageLoader has not been instantiated by parent application yet
-        if (!ImageLoader.getInstance().isInited()) {
-            // Create global configuration and initialize ImageLoader with this config
-            ImageLoaderConfiguration config = new ImageLoaderConfiguration.Builder(ctx).build();
-            ImageLoader.getInstance().init(config);
+    /**
+     * @param ctx context
+     * @return disk cache shared by all the providers unless set otherwise with {@link #setDiskCache(TileDiskCache)}
+     */
+    private static synchronized TileDiskCache getDefaultDiskCache(Context ctx) {
+        if (sDefaultDiskCache == null) {
+            sDefaultDiskCache = new TileDiskCache(new File(ctx.getCacheDir(), DISK_CACHE_DIRECTORY), TileDiskCache.DEFAULT_MAX_SIZE);
         }
-
-        // init ImageLoader display options
-        DisplayImageOptions.Builder builder = new DisplayImageOptions.Builder();
-        builder.cacheInMemory(true).cacheOnDisk(true);
-        setDisplayImageOptions(builder);
-        mOptions = builder.build();
+        return sDefaultDiskCache;
     }
 
     @Override
     public Tile getTile(int x, int y, int z) {
-        byte[] tileImage = getTileImage(x, y, z);
+        mMetrics.onRequest();
+        if (!hasTile(x, y, z)) {
+            mMetrics.onShortCircuit();
+            return NO_TILE;
+        }
+        long start = System.nanoTime();
+        byte[] tileImage;
+        try {
+            tileImage = loadTileImage(x, y, z, false);
+        } catch (CancellationException e) {
+            // the tile left the visible region before being fetched, the map will ask for it again if needed
+            return null;
+        } finally {
+            mMetrics.record(TileMetrics.Stage.TOTAL, z, System.nanoTime() - start);
+        }
         if (tileImage != null) {
-            return new Tile(mTileWidth / 2, mTileHeight / 2, tileImage);
+            mMetrics.onTileServed(tileImage.length);
+            if (mStitchSourceTiles) {
+                // tiles loaded or overzoomed as they are, not stitched, have the size of the source tiles
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(tileImage, 0, tileImage.length, options);
+                if (options.outWidth > 0 && options.outHeight > 0) {
+                    return new Tile(options.outWidth, options.outHeight, tileImage);
+                }
+            }
+            return new Tile(mTileWidth, mTileHeight, tileImage);
         }
         return NO_TILE;
     }
 
     /**
-     * Synchronously loads the requested Tile image either from cache or from the web.</p>
-     * Background threading/pooling is done by the google maps api so we can do it all synchronously.
+     * Loads the tile image from the memory cache, or through a load shared with the other
+     * threads asking for the same tile.
      *
      * @param x x coordinate of the tile
      * @param y y coordinate of the tile
      * @param z the zoom level
+     * @param background true if no renderer is waiting for the tile
      * @return byte data of the image or <i>null</i> if the image could not be loaded.
+     * @throws CancellationException if the fetch was cancelled by the scheduler
      */
-    private byte[] getTileImage(int x, int y, int z) {
-        Bitmap bitmap = ImageLoader.getInstance().loadImageSync(getTileUrl(x, y, z), mOptions);
-        if (bitmap == null) {
+    private byte[] loadTileImage(final int x, final int y, final int z, final boolean background) {
+        final long key = TileKey.of(x, y, z);
+        long start = System.nanoTime();
+        TileMemoryCache.Entry entry = mMemoryCache.getEntry(key);
+        mMetrics.record(TileMetrics.Stage.MEMORY_CACHE, z, System.nanoTime() - start);
+        if (entry != null) {
+            mMetrics.onMemoryHit();
+            if (entry.isStale(mTileMaxAge)) {
+                onStaleMemoryHit(key, x, y, z);
+            }
+            return entry.getData();
+        }
+        TileScheduler scheduler = mScheduler;
+        // a renderer joining a prefetch must not wait behind the other background work
+        boolean promoted = !background && scheduler != null && mInFlightTiles.isInFlight(key);
+        if (promoted) {
+            promoteLoad(scheduler, x, y, z, true);
+        }
+        try {
+            // renderer threads asking for a tile which is already being loaded share that load
+            return mInFlightTiles.execute(key, new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    TileMemoryCache.Entry entry;
+                    if (isSynthesized(z)) {
+                        byte[] tileImage = z > mMaxSourceZoom ? getOverzoomedTileImage(x, y, z, background)
+                                : getStitchedTileImage(x, y, z, background);
+                        // synthesized tiles are rebuilt from their sources once stale, see onStaleMemoryHit
+                        entry = tileImage != null ? new TileMemoryCache.Entry(tileImage, System.currentTimeMillis()) : null;
+                        if (entry == null && z <= mMaxSourceZoom) {
+                            // no source tile at the next zoom level, e.g. beyond the deepest level of the tile source
+                            entry = getTileEntry(x, y, z, background);
+                        }
+                    } else {
+                        entry = getTileEntry(x, y, z, background);
+                    }
+                    if (entry == null) {
+                        return null;
+                    }
+                    mMemoryCache.put(key, entry);
+                    return entry.getData();
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                throw (CancellationException) e.getCause();
+            }
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (promoted) {
+                promoteLoad(scheduler, x, y, z, false);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@link TileScheduler#promote(int, int, int) Promotes} or demotes the fetch of the tile,
+     * along with the fetches of the source tiles it is synthesized from.
+     *
+     * @param scheduler scheduler of the fetches
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @param promote true to promote, false to end the promotion
+     */
+    private void promoteLoad(TileScheduler scheduler, int x, int y, int z, boolean promote) {
+        int maxSourceZoom = mMaxSourceZoom;
+        if (z > maxSourceZoom) {
+            int zoomDelta = z - maxSourceZoom;
+            x >>= zoomDelta;
+            y >>= zoomDelta;
+            z = maxSourceZoom;
+        } else if (mStitchSourceTiles && z < maxSourceZoom) {
+            for (int i = 0; i < 4; i++) {
+                promote(scheduler, 2 * x + (i & 1), 2 * y + (i >> 1), z + 1, promote);
+            }
+        }
+        promote(scheduler, x, y, z, promote);
+    }
+
+    private static void promote(TileScheduler scheduler, int x, int y, int z, boolean promote) {
+        if (promote) {
+            scheduler.promote(x, y, z);
+        } else {
+            scheduler.demote(x, y, z);
+        }
+    }
+
+    /**
+     * @param z the zoom level
+     * @return true if the tiles of the given zoom level are built from the tiles of other zoom levels
+     */
+    private boolean isSynthesized(int z) {
+        return z > mMaxSourceZoom || (mStitchSourceTiles && z < mMaxSourceZoom);
+    }
+
+    /**
+     * Keeps a tile staying in the memory cache up to date. A tile of the tile source is revalidated in
+     * the background. A synthesized tile is dropped, so that it is rebuilt from its sources, themselves
+     * revalidated, the next time it is requested.
+     *
+     * @param key tile key
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     */
+    private void onStaleMemoryHit(long key, int x, int y, int z) {
+        if (isSynthesized(z)) {
+            mMemoryCache.remove(key);
+            return;
+        }
+        String url = getTileUrl(x, y, z);
+        if (url != null) {
+            revalidateInBackground(key, url, null);
+        }
+    }
+
+    /**
+     * Loads the tile into the memory cache on the background executor, unless it is already there
+     * or known to be empty. Tiles are dropped if too much background work is already queued.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     */
+    public void prefetchTile(final int x, final int y, final int z) {
+        if (!hasTile(x, y, z) || mMemoryCache.contains(TileKey.of(x, y, z))) {
+            return;
+        }
+        try {
+            getBackgroundExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    preloadTile(x, y, z);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the renderer will load the tile when needed
+        }
+    }
+
+    /**
+     * Synchronously loads the tile into the memory cache as background work, which the scheduler
+     * never cancels and starts after the tiles the renderer is waiting for.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @return byte data of the image or <i>null</i> if the image could not be loaded or is known to be empty.
+     */
+    public byte[] preloadTile(int x, int y, int z) {
+        if (!hasTile(x, y, z)) {
+            return null;
+        }
+        try {
+            return loadTileImage(x, y, z, true);
+        } catch (CancellationException e) {
+            // shared a renderer load cancelled by the scheduler
+            return null;
+        }
+    }
+
+    /**
+     * Synchronously makes sure the tile is cached on disk, or in memory if disk caching is disabled,
+     * downloading it if needed. Tiles deeper than the maximum zoom level of the tile source are not
+     * downloaded, as they are synthesized from their ancestors.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @return true if the tile is cached or known to be empty, false if it could not be loaded
+     */
+    public boolean warmTile(final int x, final int y, final int z) {
+        if (!hasTile(x, y, z) || z > mMaxSourceZoom) {
+            return true;
+        }
+        final long key = TileKey.of(x, y, z);
+        if (mMemoryCache.contains(key)) {
+            return true;
+        }
+        final TileDiskCache diskCache = mDiskCache;
+        if (mStitchSourceTiles && z < mMaxSourceZoom) {
+            // only the source tiles are cached on disk
+            boolean warm = true;
+            for (int i = 0; i < 4 && warm; i++) {
+                int childX = 2 * x + (i & 1);
+                int childY = 2 * y + (i >> 1);
+                if (!hasTile(childX, childY, z + 1)) {
+                    continue;
+                }
+                String childUrl = getTileUrl(childX, childY, z + 1);
+                if (childUrl != null && diskCache != null && diskCache.contains(childUrl)) {
+                    continue;
+                }
+                warm = getTileImage(childX, childY, z + 1, true) != null;
+            }
+            if (warm) {
+                return true;
+            }
+            // the tile is not stitched but loaded as it is, see getStitchedTileImage
+        }
+        String url = getTileUrl(x, y, z);
+        if (url == null) {
+            return false;
+        }
+        if (diskCache != null && diskCache.contains(url)) {
+            return true;
+        }
+        try {
+            return mInFlightTiles.execute(key, new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    byte[] tileImage = getTileImage(x, y, z, true);
+                    // without a disk cache the memory cache is the only place to keep the tile
+                    if (tileImage != null && diskCache == null) {
+                        mMemoryCache.put(key, tileImage);
+                    }
+                    return tileImage;
+                }
+            }) != null;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Synthesizes a tile deeper than the maximum zoom level of the tile source by cropping
+     * and upscaling its ancestor at the maximum zoom level. The ancestor is loaded once and
+     * then serves all its descendants without any network request.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level, greater than the maximum zoom level of the tile source
+     * @param background true if no renderer is waiting for the tile
+     * @return byte data of the image or <i>null</i> if the image could not be synthesized.
+     */
+    private byte[] getOverzoomedTileImage(int x, int y, int z, boolean background) {
+        int zoomDelta = z - mMaxSourceZoom;
+        if (zoomDelta > MAX_OVERZOOM_LEVELS) {
+            return null;
+        }
+        byte[] ancestorImage = loadTileImage(x >> zoomDelta, y >> zoomDelta, mMaxSourceZoom, background);
+        if (ancestorImage == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        BitmapRegionDecoder decoder = null;
+        Bitmap region = null;
+        Bitmap tile = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(ancestorImage, 0, ancestorImage.length, false);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            int regionWidth = Math.max(1, width >> zoomDelta);
+            int regionHeight = Math.max(1, height >> zoomDelta);
+            int left = (x & ((1 << zoomDelta) - 1)) * regionWidth;
+            int top = (y & ((1 << zoomDelta) - 1)) * regionHeight;
+            region = decoder.decodeRegion(new Rect(left, top, left + regionWidth, top + regionHeight), null);
+            if (region == null) {
+                return null;
+            }
+            tile = Bitmap.createScaledBitmap(region, width, height, true);
+            byte[] tileImage = mStorageFormat.encode(tile);
+            mOverzoomedTileCount.incrementAndGet();
+            return tileImage;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (tile != null && tile != region) {
+                tile.recycle();
+            }
+            if (region != null) {
+                region.recycle();
+            }
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            mMetrics.record(TileMetrics.Stage.OVERZOOM, z, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Builds a double density tile from the four tiles covering it at the next zoom level. The source
+     * tiles are cached on disk as usual, the stitched tile is kept in the memory cache only.
+     * The tile is not stitched as soon as one of its source tiles cannot be loaded, typically beyond the
+     * deepest zoom level of the tile source, so that no more source tiles are requested. The missing
+     * source tile is remembered by the {@link TileNegativeCache}, so later attempts make no request at all.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level, lower than the maximum zoom level of the tile source
+     * @param background true if no renderer is waiting for the tile
+     * @return byte data of the image or <i>null</i> if one of the source tiles could not be loaded.
+     * @throws CancellationException if the fetch of a source tile was cancelled by the scheduler
+     */
+    private byte[] getStitchedTileImage(int x, int y, int z, boolean background) {
+        Bitmap tile = null;
+        Canvas canvas = null;
+        long nanos = 0;
+        try {
+            for (int i = 0; i < 4; i++) {
+                int childX = 2 * x + (i & 1);
+                int childY = 2 * y + (i >> 1);
+                if (!hasTile(childX, childY, z + 1)) {
+                    continue;
+                }
+                byte[] childImage = getTileImage(childX, childY, z + 1, background);
+                if (childImage == null) {
+                    return null;
+                }
+                long start = System.nanoTime();
+                Bitmap child = BitmapFactory.decodeByteArray(childImage, 0, childImage.length);
+                if (child != null) {
+                    int width = child.getWidth();
+                    int height = child.getHeight();
+                    if (tile == null) {
+                        tile = Bitmap.createBitmap(2 * width, 2 * height, Bitmap.Config.ARGB_8888);
+                        canvas = new Canvas(tile);
+                    }
+                    int left = (i & 1) * tile.getWidth() / 2;
+                    int top = (i >> 1) * tile.getHeight() / 2;
+                    canvas.drawBitmap(child, null, new Rect(left, top, left + tile.getWidth() / 2, top + tile.getHeight() / 2), null);
+                    child.recycle();
+                }
+                nanos += System.nanoTime() - start;
+            }
+            if (tile == null) {
+                return null;
+            }
+            long start = System.nanoTime();
+            byte[] tileImage = mStorageFormat.encode(tile);
+            mMetrics.record(TileMetrics.Stage.STITCH, z, nanos + System.nanoTime() - start);
+            return tileImage;
+        } finally {
+            if (tile != null) {
+                tile.recycle();
+            }
+        }
+    }
+
+    /**
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @param background true if no renderer is waiting for the tile
+     * @return byte data of the image or <i>null</i> if the image could not be loaded.
+     * @throws CancellationException if the fetch was cancelled by the scheduler
+     * @see #getTileEntry(int, int, int, boolean)
+     */
+    private byte[] getTileImage(int x, int y, int z, boolean background) {
+        TileMemoryCache.Entry entry = getTileEntry(x, y, z, background);
+        return entry != null ? entry.getData() : null;
+    }
+
+    /**
+     * Synchronously loads the requested Tile image either from cache or from the web.</p>
+     * Background threading/pooling is done by the google maps api so we can do it all synchronously.</p>
+     * The encoded image is returned exactly as it was downloaded, so no decoding nor re-encoding takes place.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @param background true if no renderer is waiting for the tile
+     * @return image with the time it was last validated or <i>null</i> if the image could not be loaded.
+     * @throws CancellationException if the fetch was cancelled by the scheduler
+     */
+    private TileMemoryCache.Entry getTileEntry(int x, int y, int z, boolean background) {
+        String url = getTileUrl(x, y, z);
+        if (url == null) {
+            return null;
+        }
+        long key = TileKey.of(x, y, z);
+        byte[] sourceImage = getTileSourceImage(x, y, z);
+        if (sourceImage != null) {
+            return new TileMemoryCache.Entry(sourceImage, TileMemoryCache.NOT_REVALIDATED);
+        }
+        TileDiskCache diskCache = mDiskCache;
+        TileDiskCache.Entry entry = null;
+        if (diskCache != null) {
+            long start = System.nanoTime();
+            entry = diskCache.get(url);
+            mMetrics.record(TileMetrics.Stage.DISK_CACHE, z, System.nanoTime() - start);
+        }
+        if (entry != null) {
+            mMetrics.onDiskHit();
+            if (entry.isStale(mTileMaxAge)) {
+                // serve the stale tile right away, it will be up to date the next time it is requested
+                revalidateInBackground(key, url, entry);
+            }
+            return new TileMemoryCache.Entry(entry.getData(), entry.getStoredAt());
+        }
+        TileNegativeCache negativeCache = mNegativeCache;
+        if (negativeCache != null && negativeCache.shouldSkip(key)) {
+            return null;
+        }
+        TileScheduler scheduler = mScheduler;
+        if (scheduler != null) {
+            try {
+                if (!scheduler.acquire(x, y, z, background)) {
+                    throw new CancellationException();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        try {
+            if (mFetcher instanceof ConditionalTileFetcher) {
+                long start = System.nanoTime();
+                TileResponse response = ((ConditionalTileFetcher) mFetcher).fetch(url, null, null);
+                mMetrics.record(TileMetrics.Stage.NETWORK, z, System.nanoTime() - start);
+                if (response.getStatus() != TileResponse.Status.OK) {
+                    if (negativeCache != null) {
+                        negativeCache.onNotFound(key);
+                    }
+                    return null;
+                }
+                mMetrics.onNetworkFetch(response.getData().length);
+                byte[] tileImage = transcode(response.getData(), z);
+                long fetchedAt = System.currentTimeMillis();
+                if (diskCache != null) {
+                    diskCache.put(url, new TileDiskCache.Entry(tileImage, response.getETag(),
+                            response.getLastModified(), fetchedAt));
+                }
+                if (negativeCache != null) {
+                    negativeCache.onSuccess(key);
+                }
+                return new TileMemoryCache.Entry(tileImage, fetchedAt);
+            }
+            long start = System.nanoTime();
+            byte[] tileImage = mFetcher.fetch(url);
+            mMetrics.record(TileMetrics.Stage.NETWORK, z, System.nanoTime() - start);
+            if (tileImage == null) {
+                if (negativeCache != null) {
+                    negativeCache.onNotFound(key);
+                }
+                return null;
+            }
+            mMetrics.onNetworkFetch(tileImage.length);
+            tileImage = transcode(tileImage, z);
+            if (diskCache != null) {
+                diskCache.put(url, tileImage);
+            }
+            if (negativeCache != null) {
+                negativeCache.onSuccess(key);
+            }
+            // without a conditional fetcher there is no way to revalidate
+            return new TileMemoryCache.Entry(tileImage, TileMemoryCache.NOT_REVALIDATED);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (negativeCache != null) {
+                negativeCache.onError(key);
+            }
+            return null;
+        } finally {
+            if (scheduler != null) {
+                scheduler.release();
+            }
+        }
+    }
+
+    /**
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @return byte data of the image from the first tile source having it, <i>null</i> if none has it
+     */
+    private byte[] getTileSourceImage(int x, int y, int z) {
+        if (mTileSources.isEmpty()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            for (SourceTier tier : mTileSources) {
+                try {
+                    byte[] tileImage = tier.source.getTileImage(x, y, z);
+                    if (tileImage != null) {
+                        tier.hitCount.incrementAndGet();
+                        mMetrics.onTileSourceHit();
+                        return tileImage;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
             return null;
+        } finally {
+            mMetrics.record(TileMetrics.Stage.TILE_SOURCES, z, System.nanoTime() - start);
         }
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        return stream.toByteArray();
+    }
+
+    /**
+     * @param tileImage downloaded tile image
+     * @param z the zoom level of the tile
+     * @return the tile image in the storage format
+     */
+    private byte[] transcode(byte[] tileImage, int z) {
+        long start = System.nanoTime();
+        byte[] transcodedImage = mStorageFormat.transcode(tileImage);
+        mMetrics.record(TileMetrics.Stage.TRANSCODE, z, System.nanoTime() - start);
+        return transcodedImage;
+    }
+
+    /**
+     * Revalidates the cached tile with a conditional request on the background executor.
+     * A tile is revalidated at most once at a time.
+     *
+     * @param key tile key
+     * @param url url of the tile
+     * @param entry tile cached on disk, null to look it up on disk in the background
+     */
+    private void revalidateInBackground(final long key, final String url, final TileDiskCache.Entry entry) {
+        if (!(mFetcher instanceof ConditionalTileFetcher) || mRevalidatingTiles.putIfAbsent(url, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            getBackgroundExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    TileScheduler scheduler = mScheduler;
+                    boolean acquired = false;
+                    try {
+                        // background requests are never cancelled
+                        acquired = scheduler != null && scheduler.acquire(TileKey.x(key), TileKey.y(key), TileKey.z(key), true);
+                        TileDiskCache diskCache = mDiskCache;
+                        revalidate(key, url, entry != null || diskCache == null ? entry : diskCache.get(url));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        if (acquired) {
+                            scheduler.release();
+                        }
+                        mRevalidatingTiles.remove(url);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too much background work already queued, the tile will be revalidated next time
+            mRevalidatingTiles.remove(url);
+        }
+    }
+
+    /**
+     * @param key tile key
+     * @param url url of the tile
+     * @param entry tile cached on disk, null if not cached on disk, in which case the tile is fetched again
+     */
+    private void revalidate(long key, String url, TileDiskCache.Entry entry) {
+        TileDiskCache diskCache = mDiskCache;
+        try {
+            long start = System.nanoTime();
+            TileResponse response = ((ConditionalTileFetcher) mFetcher).fetch(url,
+                    entry != null ? entry.getETag() : null, entry != null ? entry.getLastModified() : null);
+            mMetrics.record(TileMetrics.Stage.NETWORK, TileKey.z(key), System.nanoTime() - start);
+            mRevalidationCount.incrementAndGet();
+            long validatedAt = System.currentTimeMillis();
+            switch (response.getStatus()) {
+                case NOT_MODIFIED:
+                    mNotModifiedCount.incrementAndGet();
+                    if (entry == null) {
+                        break;
+                    }
+                    if (diskCache != null) {
+                        diskCache.put(url, new TileDiskCache.Entry(entry.getData(),
+                                response.getETag() != null ? response.getETag() : entry.getETag(),
+                                response.getLastModified() != null ? response.getLastModified() : entry.getLastModified(),
+                                validatedAt));
+                    }
+                    // the tile kept in memory, if any, is fresh again
+                    if (mMemoryCache.contains(key)) {
+                        mMemoryCache.put(key, new TileMemoryCache.Entry(entry.getData(), validatedAt));
+                    }
+                    break;
+                case OK:
+                    mMetrics.onNetworkFetch(response.getData().length);
+                    byte[] tileImage = transcode(response.getData(), TileKey.z(key));
+                    if (diskCache != null) {
+                        diskCache.put(url, new TileDiskCache.Entry(tileImage, response.getETag(),
+                                response.getLastModified(), validatedAt));
+                    }
+                    mMemoryCache.put(key, new TileMemoryCache.Entry(tileImage, validatedAt));
+                    break;
+                case NOT_FOUND:
+                    if (diskCache != null) {
+                        diskCache.remove(url);
+                    }
+                    mMemoryCache.remove(key);
+                    TileNegativeCache negativeCache = mNegativeCache;
+                    if (negativeCache != null) {
+                        negativeCache.onNotFound(key);
+                    }
+                    break;
+            }
+        } catch (IOException e) {
+            // keep serving the stale tile
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return executor shared by all the providers for their background work
+     */
+    static synchronized ThreadPoolExecutor getBackgroundExecutor() {
+        if (sBackgroundExecutor == null) {
+            sBackgroundExecutor = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(BACKGROUND_QUEUE_SIZE), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "ubudu-map-tiles");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            sBackgroundExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sBackgroundExecutor;
+    }
+
+    /**
+     * Tells whether the tile source can have an image for the given tile at all. Tiles for which
+     * this returns false are answered with {@link #NO_TILE} right away, without being requested.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @return true if the tile should be loaded, false if it is known to be empty
+     */
+    protected boolean hasTile(int x, int y, int z) {
+        return true;
+    }
+
+    /**
+     * @return number of tile requests answered with {@link #NO_TILE} without being loaded
+     * because {@link #hasTile(int, int, int)} returned false
+     */
+    public long getShortCircuitedTileCount() {
+        return mMetrics.getShortCircuitCount();
+    }
+
+    /**
+     * @return timings and counters of the tile pipeline of this provider
+     */
+    public TileMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets the memory cache of the encoded tile images. A cache may be shared between providers
+     * of the same tile source only, as tiles are cached under their coordinates.
+     *
+     * @param memoryCache memory cache to be used
+     */
+    public void setMemoryCache(TileMemoryCache memoryCache) {
+        mMemoryCache = memoryCache;
+    }
+
+    public TileMemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /**
+     * Sets the disk cache of the encoded tile images. Tiles are cached under their urls.
+     *
+     * @param diskCache disk cache to be used, null to disable disk caching
+     */
+    public void setDiskCache(TileDiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
+    public TileDiskCache getDiskCache() {
+        return mDiskCache;
+    }
+
+    /**
+     * Sets the age after which cached tiles, in memory or on disk, are revalidated. Stale tiles are still served
+     * right away while being revalidated in the background, provided the fetcher is a {@link ConditionalTileFetcher}.
+     *
+     * @param tileMaxAge maximum age of a fresh tile in ms
+     */
+    public void setTileMaxAge(long tileMaxAge) {
+        mTileMaxAge = tileMaxAge;
+    }
+
+    public long getTileMaxAge() {
+        return mTileMaxAge;
+    }
+
+    /**
+     * @return number of completed revalidations of stale tiles
+     */
+    public long getRevalidationCount() {
+        return mRevalidationCount.get();
+    }
+
+    /**
+     * @return number of revalidations which found the cached tile unchanged and downloaded no image
+     */
+    public long getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    /**
+     * Sets the maximum zoom level for which the tile source has images. Deeper tiles are synthesized
+     * locally from their ancestor at this zoom level instead of being requested.
+     *
+     * @param maxSourceZoom maximum zoom level of the tile source
+     */
+    public void setMaxSourceZoom(int maxSourceZoom) {
+        mMaxSourceZoom = maxSourceZoom;
+    }
+
+    public int getMaxSourceZoom() {
+        return mMaxSourceZoom;
+    }
+
+    /**
+     * @return number of tiles synthesized from their ancestors, i.e. network requests saved
+     */
+    public long getOverzoomedTileCount() {
+        return mOverzoomedTileCount.get();
+    }
+
+    /**
+     * Sets the format in which downloaded tiles are stored in the memory and disk caches.
+     * Tiles are transcoded once, when downloaded. Tiles already cached are kept as they are.
+     *
+     * @param storageFormat storage format of the tiles
+     */
+    public void setStorageFormat(TileStorageFormat storageFormat) {
+        mStorageFormat = storageFormat;
+    }
+
+    public TileStorageFormat getStorageFormat() {
+        return mStorageFormat;
+    }
+
+    /**
+     * Enables building each tile from the four tiles covering it at the next zoom level of the tile source,
+     * to get double density tiles, e.g. 512px tiles sharp on high density screens, from a 256px tile source.
+     * The tile width and height of the provider should then be twice the ones of the tile source.
+     * Tiles at the {@link #setMaxSourceZoom(int) maximum zoom level of the tile source} are loaded as they are,
+     * as well as the tiles missing a source tile, and are handed to the map with the size of the source tiles.
+     * <p>Setting the maximum zoom level is recommended. Otherwise each tile of the deepest zoom level of the
+     * tile source costs a failed request for its first source tile before being loaded as it is. The
+     * {@link TileNegativeCache} remembers the missing source tile, so the request is only made again once
+     * its backoff expires, but that is still one request per tile, and as many round trips before the tile shows.</p>
+     *
+     * @param stitchSourceTiles true to stitch the source tiles
+     */
+    public void setStitchSourceTiles(boolean stitchSourceTiles) {
+        mStitchSourceTiles = stitchSourceTiles;
+    }
+
+    public boolean isStitchSourceTiles() {
+        return mStitchSourceTiles;
+    }
+
+    /**
+     * Sets the cache of the tiles which could not be loaded, which are then not requested again until
+     * their backoff expires.
+     *
+     * @param negativeCache negative cache to be used, null to request failed tiles again every time
+     */
+    public void setNegativeCache(TileNegativeCache negativeCache) {
+        mNegativeCache = negativeCache;
+    }
+
+    public TileNegativeCache getNegativeCache() {
+        return mNegativeCache;
+    }
+
+    /**
+     * Adds a read-only tile source, consulted after the memory cache and the tile sources added before,
+     * and before the disk cache and the network. Tiles read from a tile source are neither revalidated
+     * nor transcoded.
+     *
+     * @param tileSource tile source to be added
+     */
+    public void addTileSource(TileSource tileSource) {
+        mTileSources.add(new SourceTier(tileSource));
+    }
+
+    /**
+     * @param tileSource tile source to be removed
+     */
+    public void removeTileSource(TileSource tileSource) {
+        for (SourceTier tier : mTileSources) {
+            if (tier.source == tileSource) {
+                mTileSources.remove(tier);
+            }
+        }
+    }
+
+    /**
+     * @param tileSource tile source added with {@link #addTileSource(TileSource)}
+     * @return number of tiles read from the tile source, 0 if it has not been added
+     */
+    public long getTileSourceHitCount(TileSource tileSource) {
+        for (SourceTier tier : mTileSources) {
+            if (tier.source == tileSource) {
+                return tier.hitCount.get();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the scheduler ordering the network fetches of this provider by their distance to the camera.
+     * Fetches of tiles which left the visible region are then answered with <i>null</i>, so that the map
+     * asks for them again when needed.
+     *
+     * @param scheduler scheduler to be used, null to fetch tiles in the order they are requested
+     */
+    public void setScheduler(TileScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    public TileScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    public TileFetcher getFetcher() {
+        return mFetcher;
+    }
+
+    /**
+     * @return number of tile requests which shared a load already in flight for the same tile
+     */
+    public long getCoalescedTileRequestCount() {
+        return mInFlightTiles.getCoalescedCount();
     }
 
     /**
@@ -81,7 +1001,16 @@ public abstract class CachingUrlTileProvider implements TileProvider {
      * @return a TileOverlayOptions with this object set as a tile provider plus fadeIn set to false
      */
     public TileOverlayOptions createTileOverlayOptions() {
-        TileOverlayOptions tileOverlayOptions = new TileOverlayOptions().tileProvider(this);
+        return createTileOverlayOptions(this);
+    }
+
+    /**
+     * Creates a new TileOverlayOptions object for any tile provider
+     * @param tileProvider tile provider to be used by the overlay
+     * @return a TileOverlayOptions with the given tile provider set plus fadeIn set to false
+     */
+    public static TileOverlayOptions createTileOverlayOptions(TileProvider tileProvider) {
+        TileOverlayOptions tileOverlayOptions = new TileOverlayOptions().tileProvider(tileProvider);
 
         // set fadeIn to false for all GMS versions that support it
         try {
@@ -94,17 +1023,6 @@ public abstract class CachingUrlTileProvider implements TileProvider {
         return tileOverlayOptions;
     }
 
-    /**
-     * Allows you to set additional ImageLoader display options.<p/>
-     * See https://github.com/nostra13/Android-Universal-Image-Loader/wiki/Display-Options for possible options.<p/>
-     * Disabling the cache option DOES NOT MAKE SENSE.
-     *
-     * @param optionsBuilder options builder for setting de downloader settings
-     */
-    protected void setDisplayImageOptions(DisplayImageOptions.Builder optionsBuilder) {
-
-    }
-
     /**
      * Return the url to your tiles. For example:
      * <pre>
@@ -120,4 +1038,17 @@ public abstract class CachingUrlTileProvider implements TileProvider {
      * @return the url to the tile specified by the parameters
      */
     public abstract String getTileUrl(int x, int y, int z);
+
+    /**
+     * Tile source with its hit counter
+     */
+    private static class SourceTier {
+
+        final TileSource source;
+        final AtomicLong hitCount = new AtomicLong();
+
+        SourceTier(TileSource source) {
+            this.source = source;
+        }
+    }
 }
\ No newline at end of file
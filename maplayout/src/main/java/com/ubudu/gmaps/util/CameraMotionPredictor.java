@@ -0,0 +1,186 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Predicts where the camera is going from its successive visible regions, and which tiles lie
+ * between the visible region and the predicted one. Used by {@link CameraMotionPrefetcher}.</p>
+ * <p>Only computes on the camera samples it is given, with their time, so that a recorded camera
+ * motion can be replayed.</p>
+ */
+public class CameraMotionPredictor {
+
+    // weight of the last measured velocity in the velocity estimate
+    private static final double VELOCITY_SMOOTHING = 0.5;
+    // camera moves further apart are not considered part of the same motion
+    private static final long MAX_MOVE_INTERVAL = 200; // ms
+
+    private LatLng mLastCenter;
+    private long mLastMoveTime;
+    // velocity in degrees per ms
+    private double mLatVelocity;
+    private double mLngVelocity;
+
+    /**
+     * Updates the velocity estimate with a camera sample
+     *
+     * @param visibleBounds bounds of the visible region
+     * @param time time of the sample in ms
+     */
+    public void onCameraMove(LatLngBounds visibleBounds, long time) {
+        LatLng center = visibleBounds.getCenter();
+        long interval = time - mLastMoveTime;
+        if (mLastCenter == null || interval > MAX_MOVE_INTERVAL) {
+            mLatVelocity = 0;
+            mLngVelocity = 0;
+        } else if (interval > 0) {
+            mLatVelocity = VELOCITY_SMOOTHING * (center.latitude - mLastCenter.latitude) / interval
+                    + (1 - VELOCITY_SMOOTHING) * mLatVelocity;
+            mLngVelocity = VELOCITY_SMOOTHING * wrapLongitude(center.longitude - mLastCenter.longitude) / interval
+                    + (1 - VELOCITY_SMOOTHING) * mLngVelocity;
+        }
+        mLastCenter = center;
+        mLastMoveTime = time;
+    }
+
+    /**
+     * Ends the current motion
+     */
+    public void reset() {
+        mLastCenter = null;
+        mLatVelocity = 0;
+        mLngVelocity = 0;
+    }
+
+    public boolean isMoving() {
+        return mLatVelocity != 0 || mLngVelocity != 0;
+    }
+
+    /**
+     * @return latitude velocity in degrees per ms
+     */
+    public double getLatVelocity() {
+        return mLatVelocity;
+    }
+
+    /**
+     * @return longitude velocity in degrees per ms
+     */
+    public double getLngVelocity() {
+        return mLngVelocity;
+    }
+
+    /**
+     * @param visibleBounds bounds of the visible region
+     * @param lookahead how far ahead in time the region is predicted, in ms
+     * @return the visible region moved at the current velocity for the lookahead time
+     */
+    public LatLngBounds getPredictedBounds(LatLngBounds visibleBounds, long lookahead) {
+        double latOffset = mLatVelocity * lookahead;
+        double lngOffset = mLngVelocity * lookahead;
+        // LatLng wraps the longitudes, the predicted bounds then cross the antimeridian
+        return new LatLngBounds(
+                new LatLng(clampLatitude(visibleBounds.southwest.latitude + latOffset), visibleBounds.southwest.longitude + lngOffset),
+                new LatLng(clampLatitude(visibleBounds.northeast.latitude + latOffset), visibleBounds.northeast.longitude + lngOffset));
+    }
+
+    /**
+     * Lists the tiles of the predicted region which are not visible, closest to the center of the
+     * visible region first.
+     *
+     * @param visibleBounds bounds of the visible region
+     * @param predictedBounds bounds of the predicted region
+     * @param minZoom minimum zoom level of the tiles
+     * @param maxZoom maximum zoom level of the tiles
+     * @param maxTiles maximum number of tiles returned
+     * @return keys of the tiles, see {@link TileKey}
+     */
+    public static List<Long> getBandTiles(LatLngBounds visibleBounds, LatLngBounds predictedBounds,
+                                          int minZoom, int maxZoom, int maxTiles) {
+        List<TileRange> visibleTiles = new ArrayList<>(2);
+        for (LatLngBounds bounds : splitAtAntimeridian(visibleBounds)) {
+            visibleTiles.add(new TileRange(bounds, 256, minZoom, maxZoom));
+        }
+        LatLng center = visibleBounds.getCenter();
+        // squared distance to the center, in tiles, of each candidate tile
+        final Map<Long, Double> distances = new HashMap<>();
+        for (LatLngBounds bounds : splitAtAntimeridian(predictedBounds)) {
+            TileRange predictedTiles = new TileRange(bounds, 256, minZoom, maxZoom);
+            for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+                addBandTiles(distances, visibleTiles, predictedTiles, center, zoom);
+            }
+        }
+        List<Long> tiles = new ArrayList<>(distances.keySet());
+        Collections.sort(tiles, new Comparator<Long>() {
+            @Override
+            public int compare(Long first, Long second) {
+                return Double.compare(distances.get(first), distances.get(second));
+            }
+        });
+        return tiles.size() > maxTiles ? new ArrayList<>(tiles.subList(0, maxTiles)) : tiles;
+    }
+
+    private static void addBandTiles(Map<Long, Double> distances, List<TileRange> visibleTiles,
+                                     TileRange predictedTiles, LatLng center, int zoom) {
+        double worldTiles = Math.scalb(1.0, zoom);
+        double centerX = Mercator.lngToX(center.longitude, zoom) / 256;
+        double centerY = Mercator.latToY(center.latitude, zoom) / 256;
+        for (int x = predictedTiles.getMinX(zoom); x <= predictedTiles.getMaxX(zoom); x++) {
+            for (int y = predictedTiles.getMinY(zoom); y <= predictedTiles.getMaxY(zoom); y++) {
+                if (contains(visibleTiles, x, y, zoom))
+                    continue;
+                double dx = Math.abs(x + 0.5 - centerX);
+                // the shortest way may be across the antimeridian
+                dx = Math.min(dx, worldTiles - dx);
+                double dy = y + 0.5 - centerY;
+                distances.put(TileKey.of(x, y, zoom), dx * dx + dy * dy);
+            }
+        }
+    }
+
+    private static boolean contains(List<TileRange> tileRanges, int x, int y, int zoom) {
+        for (TileRange tileRange : tileRanges) {
+            if (tileRange.contains(x, y, zoom))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param bounds bounds, possibly crossing the antimeridian
+     * @return the bounds, or their parts on each side of the antimeridian if they cross it
+     */
+    static List<LatLngBounds> splitAtAntimeridian(LatLngBounds bounds) {
+        if (bounds.southwest.longitude <= bounds.northeast.longitude) {
+            return Collections.singletonList(bounds);
+        }
+        List<LatLngBounds> parts = new ArrayList<>(2);
+        // LatLng wraps 180 to -180, the eastern edge of the world is taken just before it
+        parts.add(new LatLngBounds(bounds.southwest, new LatLng(bounds.northeast.latitude, Math.nextAfter(180.0, 0))));
+        parts.add(new LatLngBounds(new LatLng(bounds.southwest.latitude, -180), bounds.northeast));
+        return parts;
+    }
+
+    /**
+     * @return longitude difference between -180 and 180 degrees
+     */
+    private static double wrapLongitude(double longitude) {
+        if (longitude > 180)
+            return longitude - 360;
+        if (longitude < -180)
+            return longitude + 360;
+        return longitude;
+    }
+
+    private static double clampLatitude(double latitude) {
+        return Math.max(-85, Math.min(85, latitude));
+    }
+}
@@ -0,0 +1,185 @@
+package com.ubudu.gmaps.util;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Prefetches the tiles the camera is moving towards, so that the leading edge of the map is
+ * already loaded when it comes into view during a pan or a fling.</p>
+ * <p>The camera velocity is estimated from the successive visible regions. The band of tiles between
+ * the visible region and the region predicted a short time ahead is prefetched at the current zoom
+ * level and at the next one, closest tiles first, see {@link CameraMotionPredictor}.</p>
+ * <p>Prefetching is bounded by a number of concurrent loads, tiles which cannot be started right
+ * away are skipped as the motion goes on, and by a number of bytes per camera motion.</p>
+ */
+public class CameraMotionPrefetcher {
+
+    public static final int DEFAULT_MAX_CONCURRENT_LOADS = 2;
+    public static final long DEFAULT_MAX_BYTES_PER_MOTION = 2 * 1024 * 1024;
+    public static final long DEFAULT_LOOKAHEAD = 500; // ms
+
+    // maximum number of tiles considered per camera move
+    private static final int MAX_CANDIDATE_TILES = 64;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final long mMaxBytesPerMotion;
+    private volatile long mLookahead = DEFAULT_LOOKAHEAD;
+    private final AtomicLong mMotionBytes = new AtomicLong();
+    private final AtomicLong mPrefetchedTileCount = new AtomicLong();
+    private final AtomicLong mPrefetchedBytes = new AtomicLong();
+    private final AtomicLong mSkippedTileCount = new AtomicLong();
+    // tiles requested during the current motion, per provider
+    private final Map<CachingUrlTileProvider, Set<Long>> mRequestedTiles = new HashMap<>();
+    private final CameraMotionPredictor mPredictor = new CameraMotionPredictor();
+
+    public CameraMotionPrefetcher() {
+        this(DEFAULT_MAX_CONCURRENT_LOADS, DEFAULT_MAX_BYTES_PER_MOTION);
+    }
+
+    /**
+     * @param maxConcurrentLoads maximum number of tiles loaded at once
+     * @param maxBytesPerMotion maximum number of bytes loaded for a single camera motion
+     */
+    public CameraMotionPrefetcher(int maxConcurrentLoads, long maxBytesPerMotion) {
+        mMaxBytesPerMotion = maxBytesPerMotion;
+        mExecutor = new ThreadPoolExecutor(maxConcurrentLoads, maxConcurrentLoads, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ubudu-map-tiles-motion");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * To be called on each camera move, on the main thread
+     *
+     * @param visibleBounds bounds of the visible region
+     * @param zoom camera zoom level
+     * @param tileProviders providers of the visible tile overlays
+     */
+    public void onCameraMove(LatLngBounds visibleBounds, float zoom, List<? extends CachingUrlTileProvider> tileProviders) {
+        mPredictor.onCameraMove(visibleBounds, SystemClock.uptimeMillis());
+        if (!mPredictor.isMoving() || tileProviders.isEmpty()) {
+            return;
+        }
+
+        int currentZoom = Math.max(0, Math.min(Math.round(zoom), TileRange.MAX_ZOOM - 1));
+        List<Long> candidates = CameraMotionPredictor.getBandTiles(visibleBounds,
+                mPredictor.getPredictedBounds(visibleBounds, mLookahead), currentZoom, currentZoom + 1, MAX_CANDIDATE_TILES);
+        for (long candidate : candidates) {
+            if (mMotionBytes.get() >= mMaxBytesPerMotion)
+                return;
+            for (CachingUrlTileProvider tileProvider : tileProviders) {
+                if (!prefetch(tileProvider, candidate))
+                    return;
+            }
+        }
+    }
+
+    /**
+     * To be called when the camera stops moving, ends the current motion
+     */
+    public void onCameraIdle() {
+        mPredictor.reset();
+        mMotionBytes.set(0);
+        synchronized (mRequestedTiles) {
+            mRequestedTiles.clear();
+        }
+    }
+
+    /**
+     * @return false if no more loads can be started for now
+     */
+    private boolean prefetch(final CachingUrlTileProvider tileProvider, final long key) {
+        synchronized (mRequestedTiles) {
+            Set<Long> requestedTiles = mRequestedTiles.get(tileProvider);
+            if (requestedTiles == null) {
+                requestedTiles = new HashSet<>();
+                mRequestedTiles.put(tileProvider, requestedTiles);
+            }
+            if (!requestedTiles.add(key))
+                return true;
+        }
+        if (tileProvider.getMemoryCache().contains(key))
+            return true;
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mMotionBytes.get() >= mMaxBytesPerMotion)
+                        return;
+                    byte[] tileImage = tileProvider.preloadTile(TileKey.x(key), TileKey.y(key), TileKey.z(key));
+                    if (tileImage != null) {
+                        mMotionBytes.addAndGet(tileImage.length);
+                        mPrefetchedBytes.addAndGet(tileImage.length);
+                        mPrefetchedTileCount.incrementAndGet();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // all the loads are busy, the tile may be requested again on the next move
+            synchronized (mRequestedTiles) {
+                mRequestedTiles.get(tileProvider).remove(key);
+            }
+            mSkippedTileCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * @param lookahead how far ahead in time the camera position is predicted, in ms
+     */
+    public void setLookahead(long lookahead) {
+        mLookahead = lookahead;
+    }
+
+    public long getLookahead() {
+        return mLookahead;
+    }
+
+    /**
+     * @return number of tiles prefetched
+     */
+    public long getPrefetchedTileCount() {
+        return mPrefetchedTileCount.get();
+    }
+
+    /**
+     * @return number of bytes of the tiles prefetched
+     */
+    public long getPrefetchedBytes() {
+        return mPrefetchedBytes.get();
+    }
+
+    /**
+     * @return number of tiles skipped because all the loads were busy
+     */
+    public long getSkippedTileCount() {
+        return mSkippedTileCount.get();
+    }
+}
@@ -0,0 +1,21 @@
+package com.ubudu.gmaps.util;
+
+import java.io.IOException;
+
+/**
+ * {@link TileFetcher} able to revalidate cached tiles with conditional requests, so that
+ * a tile which has not changed costs no payload.
+ */
+public interface ConditionalTileFetcher extends TileFetcher {
+
+    /**
+     * Synchronously downloads the tile image unless it matches the given validators.
+     *
+     * @param url url of the tile
+     * @param eTag ETag of the cached tile image, null if unknown
+     * @param lastModified Last-Modified date of the cached tile image, null if unknown
+     * @return response of the server
+     * @throws IOException if the tile could not be downloaded
+     */
+    TileResponse fetch(String url, String eTag, String lastModified) throws IOException;
+}
@@ -0,0 +1,291 @@
+package com.ubudu.gmaps.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Tiles a single large floor plan image on the device.</p>
+ * <p>The image is expected to be north up and to cover the given bounds in the Web Mercator projection.
+ * Only the part of the image under a tile is decoded, subsampled to the tile resolution, with a
+ * {@link BitmapRegionDecoder}, so memory usage does not depend on the size of the image.</p>
+ * <p>Tiles can be served directly, as a tile provider, or generated ahead of time for a range of zoom
+ * levels with {@link #generate(int, int, TileSink)}. One decoder per core is used so that tiles are
+ * rendered in parallel.</p>
+ */
+public class FloorPlanTileProvider implements TileProvider {
+
+    public static final String TAG = FloorPlanTileProvider.class.getCanonicalName();
+
+    // the map tile grid is laid out in 256 px tiles whatever the size of the generated tiles
+    private static final int WORLD_TILE_SIZE = 256;
+    // how often a thread waiting for a decoder checks whether the provider has been closed
+    private static final long DECODER_WAIT_MS = 100;
+
+    private final String mImagePath;
+    private final LatLngBounds mBounds;
+    private final int mTileSize;
+    private final TileRange mTileRange;
+    private final int mMaxDecoders;
+    private final LinkedBlockingQueue<BitmapRegionDecoder> mDecoders = new LinkedBlockingQueue<>();
+    private final AtomicInteger mDecoderCount = new AtomicInteger();
+    private volatile TileStorageFormat mStorageFormat = TileStorageFormat.png();
+    private volatile boolean mClosed;
+    private volatile int mImageWidth = -1;
+    private volatile int mImageHeight = -1;
+
+    /**
+     * @param imagePath path of the floor plan image file
+     * @param bounds coordinates of the floor plan image corners
+     * @param tileSize size of the generated tiles in pixels
+     */
+    public FloorPlanTileProvider(String imagePath, LatLngBounds bounds, int tileSize) {
+        mImagePath = imagePath;
+        mBounds = bounds;
+        mTileSize = tileSize;
+        mTileRange = new TileRange(bounds, WORLD_TILE_SIZE);
+        mMaxDecoders = Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int z) {
+        byte[] tileImage = getTileImage(x, y, z);
+        if (tileImage != null) {
+            return new Tile(mTileSize, mTileSize, tileImage);
+        }
+        return NO_TILE;
+    }
+
+    /**
+     * Renders the tile from the part of the floor plan image it covers
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @return encoded tile image or <i>null</i> if the tile does not overlap the floor plan
+     */
+    public byte[] getTileImage(int x, int y, int z) {
+        if (!mTileRange.contains(x, y, z)) {
+            return null;
+        }
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = acquireDecoder();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open floor plan image " + mImagePath, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (decoder == null) {
+            return null;
+        }
+        try {
+            return renderTile(decoder, x, y, z);
+        } finally {
+            mDecoders.offer(decoder);
+            if (mClosed) {
+                // closed while rendering, the decoder given back is not released by close()
+                recycleDecoders();
+            }
+        }
+    }
+
+    private byte[] renderTile(BitmapRegionDecoder decoder, int x, int y, int z) {
+        // floor plan edges in world pixels at this zoom level
+        double left = Mercator.lngToX(mBounds.southwest.longitude, z);
+        double right = Mercator.lngToX(mBounds.northeast.longitude, z);
+        double top = Mercator.latToY(mBounds.northeast.latitude, z);
+        double bottom = Mercator.latToY(mBounds.southwest.latitude, z);
+        double scaleX = mImageWidth / (right - left);
+        double scaleY = mImageHeight / (bottom - top);
+
+        // part of the tile covered by the floor plan, in world pixels
+        double tileLeft = Math.max((double) x * WORLD_TILE_SIZE, left);
+        double tileRight = Math.min((double) (x + 1) * WORLD_TILE_SIZE, right);
+        double tileTop = Math.max((double) y * WORLD_TILE_SIZE, top);
+        double tileBottom = Math.min((double) (y + 1) * WORLD_TILE_SIZE, bottom);
+        if (tileLeft >= tileRight || tileTop >= tileBottom) {
+            return null;
+        }
+
+        Rect source = new Rect(
+                Math.max(0, (int) Math.floor((tileLeft - left) * scaleX)),
+                Math.max(0, (int) Math.floor((tileTop - top) * scaleY)),
+                Math.min(mImageWidth, (int) Math.ceil((tileRight - left) * scaleX)),
+                Math.min(mImageHeight, (int) Math.ceil((tileBottom - top) * scaleY)));
+        if (source.isEmpty()) {
+            return null;
+        }
+        // world pixels to pixels of the generated tile
+        double tileScale = (double) mTileSize / WORLD_TILE_SIZE;
+        RectF destination = new RectF(
+                (float) ((tileLeft - (double) x * WORLD_TILE_SIZE) * tileScale),
+                (float) ((tileTop - (double) y * WORLD_TILE_SIZE) * tileScale),
+                (float) ((tileRight - (double) x * WORLD_TILE_SIZE) * tileScale),
+                (float) ((tileBottom - (double) y * WORLD_TILE_SIZE) * tileScale));
+
+        // subsample so that the decoded region is not much bigger than the part of the tile it fills
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (source.width() / (options.inSampleSize * 2) >= destination.right - destination.left
+                && source.height() / (options.inSampleSize * 2) >= destination.bottom - destination.top) {
+            options.inSampleSize *= 2;
+        }
+
+        Bitmap region = decoder.decodeRegion(source, options);
+        if (region == null) {
+            return null;
+        }
+        Bitmap tile = Bitmap.createBitmap(mTileSize, mTileSize, Bitmap.Config.ARGB_8888);
+        try {
+            new Canvas(tile).drawBitmap(region, null, destination, new Paint(Paint.FILTER_BITMAP_FLAG));
+            return mStorageFormat.encode(tile);
+        } finally {
+            region.recycle();
+            tile.recycle();
+        }
+    }
+
+    /**
+     * @return an idle decoder, a new one if less than one per core exist, null if the provider is closed
+     */
+    private BitmapRegionDecoder acquireDecoder() throws IOException, InterruptedException {
+        if (mClosed) {
+            return null;
+        }
+        BitmapRegionDecoder decoder = mDecoders.poll();
+        if (decoder != null) {
+            return decoder;
+        }
+        if (mDecoderCount.incrementAndGet() <= mMaxDecoders) {
+            try {
+                decoder = BitmapRegionDecoder.newInstance(mImagePath, false);
+            } catch (IOException e) {
+                mDecoderCount.decrementAndGet();
+                throw e;
+            }
+            mImageWidth = decoder.getWidth();
+            mImageHeight = decoder.getHeight();
+            return decoder;
+        }
+        mDecoderCount.decrementAndGet();
+        // close() empties the queue, so waiting threads give up once they see the provider closed
+        while (!mClosed) {
+            decoder = mDecoders.poll(DECODER_WAIT_MS, TimeUnit.MILLISECONDS);
+            if (decoder != null) {
+                return decoder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Generates all the tiles of the floor plan for the given zoom levels, in parallel on one thread per core.
+     * The number of tiles rendered at once is bounded, so memory usage stays the same whatever the
+     * number of tiles. Blocks until all the tiles have been handed to the sink, must not be called on the main thread.
+     *
+     * @param minZoom minimum zoom level
+     * @param maxZoom maximum zoom level
+     * @param sink receiver of the generated tiles, called from the worker threads
+     * @return number of generated tiles
+     * @throws InterruptedException if the calling thread has been interrupted, the remaining tiles are not generated
+     */
+    public long generate(int minZoom, int maxZoom, final TileSink sink) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(mMaxDecoders);
+        final Semaphore pendingTiles = new Semaphore(mMaxDecoders * 2);
+        final AtomicLong generatedCount = new AtomicLong();
+        try {
+            for (int z = minZoom; z <= maxZoom; z++) {
+                for (int x = mTileRange.getMinX(z); x <= mTileRange.getMaxX(z); x++) {
+                    for (int y = mTileRange.getMinY(z); y <= mTileRange.getMaxY(z); y++) {
+                        pendingTiles.acquire();
+                        final int tileX = x, tileY = y, tileZ = z;
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    byte[] tileImage = getTileImage(tileX, tileY, tileZ);
+                                    if (tileImage != null) {
+                                        sink.onTile(tileX, tileY, tileZ, tileImage);
+                                        generatedCount.incrementAndGet();
+                                    }
+                                } finally {
+                                    pendingTiles.release();
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        return generatedCount.get();
+    }
+
+    /**
+     * Creates a new TileOverlayOptions object to be used with {@link com.google.android.gms.maps.GoogleMap#addTileOverlay(TileOverlayOptions) map.addTileOverlay()}
+     * @return a TileOverlayOptions with this object set as a tile provider plus fadeIn set to false
+     */
+    public TileOverlayOptions createTileOverlayOptions() {
+        return CachingUrlTileProvider.createTileOverlayOptions(this);
+    }
+
+    /**
+     * Sets the format of the generated tiles, PNG by default
+     *
+     * @param storageFormat format of the generated tiles
+     */
+    public void setStorageFormat(TileStorageFormat storageFormat) {
+        mStorageFormat = storageFormat;
+    }
+
+    public TileRange getTileRange() {
+        return mTileRange;
+    }
+
+    /**
+     * Releases the decoders. No more tiles are rendered afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        recycleDecoders();
+    }
+
+    private void recycleDecoders() {
+        BitmapRegionDecoder decoder;
+        while ((decoder = mDecoders.poll()) != null) {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Receiver of the tiles generated by {@link #generate(int, int, TileSink)}
+     */
+    public interface TileSink {
+        void onTile(int x, int y, int z, byte[] tileImage);
+    }
+}
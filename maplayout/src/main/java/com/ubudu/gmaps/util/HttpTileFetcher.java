@@ -0,0 +1,134 @@
+package com.ubudu.gmaps.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>{@link TileFetcher} built on {@link HttpURLConnection}, supporting conditional requests.</p>
+ * <p>Response bodies, including error ones, are always read to the end and closed without
+ * disconnecting, so that the platform keeps the connections alive and reuses them for the
+ * following tiles. The number of simultaneous connections is bounded, callers above the limit
+ * wait for a connection to be released.</p>
+ */
+public class HttpTileFetcher implements ConditionalTileFetcher {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000; // ms
+    public static final int DEFAULT_READ_TIMEOUT = 20000; // ms
+
+    private final Semaphore mConnections;
+    private final int mMaxConnections;
+    private volatile int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int mReadTimeout = DEFAULT_READ_TIMEOUT;
+
+    public HttpTileFetcher() {
+        this(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param maxConnections maximum number of simultaneous connections
+     */
+    public HttpTileFetcher(int maxConnections) {
+        mMaxConnections = maxConnections;
+        mConnections = new Semaphore(maxConnections, true);
+    }
+
+    @Override
+    public byte[] fetch(String url) throws IOException {
+        return fetch(url, null, null).getData();
+    }
+
+    @Override
+    public TileResponse fetch(String url, String eTag, String lastModified) throws IOException {
+        try {
+            mConnections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection");
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(mConnectTimeout);
+            connection.setReadTimeout(mReadTimeout);
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                byte[] data = readFully(connection.getInputStream(), connection.getContentLength());
+                return new TileResponse(TileResponse.Status.OK, data,
+                        connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            }
+            // drain the error body so that the connection can be reused
+            InputStream errorStream = connection.getErrorStream();
+            if (errorStream != null) {
+                readFully(errorStream, -1);
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new TileResponse(TileResponse.Status.NOT_MODIFIED, null,
+                        connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+                return new TileResponse(TileResponse.Status.NOT_FOUND, null, null, null);
+            }
+            throw new IOException("Tile request failed with response code " + responseCode + ": " + url);
+        } finally {
+            mConnections.release();
+        }
+    }
+
+    /**
+     * Reads the stream to the end and closes it
+     *
+     * @param stream stream to read
+     * @param contentLength expected length of the content, -1 if unknown
+     * @return bytes read
+     * @throws IOException if the stream could not be read
+     */
+    static byte[] readFully(InputStream stream, int contentLength) throws IOException {
+        try {
+            if (contentLength >= 0) {
+                byte[] data = new byte[contentLength];
+                int offset = 0;
+                while (offset < contentLength) {
+                    int read = stream.read(data, offset, contentLength - offset);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of stream");
+                    }
+                    offset += read;
+                }
+                return data;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    public int getMaxConnections() {
+        return mMaxConnections;
+    }
+
+    public HttpTileFetcher setConnectTimeout(int connectTimeout) {
+        mConnectTimeout = connectTimeout;
+        return this;
+    }
+
+    public HttpTileFetcher setReadTimeout(int readTimeout) {
+        mReadTimeout = readTimeout;
+        return this;
+    }
+}
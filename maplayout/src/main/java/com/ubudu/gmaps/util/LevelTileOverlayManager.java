@@ -0,0 +1,174 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.TileOverlay;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Keeps one tile overlay per floor level of a venue.</p>
+ * <p>All the overlays stay on the map and only the one of the current level is visible, so switching
+ * levels is a visibility swap rather than a teardown. Tiles of the levels right below and above the
+ * current one are prefetched for the visible region, so they are already in memory when switching.</p>
+ */
+public class LevelTileOverlayManager {
+
+    /**
+     * Maximum number of tiles prefetched per adjacent level on each camera idle
+     */
+    private static final int MAX_PREFETCHED_TILES_PER_LEVEL = 64;
+
+    private final float mZIndex;
+    private final TreeMap<Integer, CachingUrlTileProvider> mProviders = new TreeMap<>();
+    private final Map<Integer, TileOverlay> mOverlays = new HashMap<>();
+    private GoogleMap mGoogleMap;
+    private Integer mCurrentLevel;
+    private LatLngBounds mVisibleBounds;
+    private int mVisibleZoom;
+
+    /**
+     * @param zIndex z index of the overlays
+     */
+    public LevelTileOverlayManager(float zIndex) {
+        mZIndex = zIndex;
+    }
+
+    /**
+     * Attaches the overlays to the given map, previously attached map being left
+     *
+     * @param googleMap map to attach the overlays to
+     */
+    public void attach(GoogleMap googleMap) {
+        removeOverlays();
+        mGoogleMap = googleMap;
+        for (Map.Entry<Integer, CachingUrlTileProvider> entry : mProviders.entrySet()) {
+            addOverlay(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Adds or replaces the tile source of the given level
+     *
+     * @param level floor level
+     * @param tileProvider tile provider of the level
+     */
+    public void addLevel(int level, CachingUrlTileProvider tileProvider) {
+        removeLevel(level);
+        mProviders.put(level, tileProvider);
+        if (mCurrentLevel == null)
+            mCurrentLevel = level;
+        if (mGoogleMap != null)
+            addOverlay(level, tileProvider);
+    }
+
+    /**
+     * @param level floor level to remove
+     * @return true if the level has been removed, false if it did not exist
+     */
+    public boolean removeLevel(int level) {
+        TileOverlay overlay = mOverlays.remove(level);
+        if (overlay != null)
+            overlay.remove();
+        boolean removed = mProviders.remove(level) != null;
+        if (mCurrentLevel != null && mCurrentLevel == level)
+            mCurrentLevel = mProviders.isEmpty() ? null : mProviders.firstKey();
+        return removed;
+    }
+
+    /**
+     * Removes all the levels
+     */
+    public void removeLevels() {
+        removeOverlays();
+        mProviders.clear();
+        mCurrentLevel = null;
+    }
+
+    /**
+     * Makes the overlay of the given level the only visible one and starts prefetching the adjacent levels
+     *
+     * @param level floor level to show
+     * @return true if the level has been shown, false if it does not exist
+     */
+    public boolean showLevel(int level) {
+        if (!mProviders.containsKey(level))
+            return false;
+        mCurrentLevel = level;
+        for (Map.Entry<Integer, TileOverlay> entry : mOverlays.entrySet()) {
+            boolean visible = entry.getKey() == level;
+            entry.getValue().setZIndex(visible ? mZIndex : mZIndex - 1);
+            entry.getValue().setVisible(visible);
+        }
+        prefetchAdjacentLevels();
+        return true;
+    }
+
+    /**
+     * To be called when the camera stops moving, so that the adjacent levels are prefetched for the new viewport
+     *
+     * @param visibleBounds bounds of the visible region
+     * @param zoom current camera zoom
+     */
+    public void onCameraIdle(LatLngBounds visibleBounds, float zoom) {
+        mVisibleBounds = visibleBounds;
+        mVisibleZoom = Math.round(zoom);
+        prefetchAdjacentLevels();
+    }
+
+    public Integer getCurrentLevel() {
+        return mCurrentLevel;
+    }
+
+    /**
+     * @param level floor level
+     * @return tile provider of the level or null if it does not exist
+     */
+    public CachingUrlTileProvider getTileProvider(int level) {
+        return mProviders.get(level);
+    }
+
+    public boolean isEmpty() {
+        return mProviders.isEmpty();
+    }
+
+    private void addOverlay(int level, CachingUrlTileProvider tileProvider) {
+        boolean visible = mCurrentLevel != null && mCurrentLevel == level;
+        TileOverlay overlay = mGoogleMap.addTileOverlay(tileProvider.createTileOverlayOptions()
+                .zIndex(visible ? mZIndex : mZIndex - 1)
+                .visible(visible));
+        mOverlays.put(level, overlay);
+    }
+
+    private void removeOverlays() {
+        for (TileOverlay overlay : mOverlays.values())
+            overlay.remove();
+        mOverlays.clear();
+    }
+
+    private void prefetchAdjacentLevels() {
+        if (mCurrentLevel == null || mVisibleBounds == null)
+            return;
+        Integer lower = mProviders.lowerKey(mCurrentLevel);
+        Integer higher = mProviders.higherKey(mCurrentLevel);
+        TileRange visibleTiles = new TileRange(mVisibleBounds, 256);
+        if (lower != null)
+            prefetch(mProviders.get(lower), visibleTiles);
+        if (higher != null)
+            prefetch(mProviders.get(higher), visibleTiles);
+    }
+
+    private void prefetch(CachingUrlTileProvider tileProvider, TileRange visibleTiles) {
+        int zoom = Math.max(0, Math.min(mVisibleZoom, TileRange.MAX_ZOOM));
+        int count = 0;
+        for (int x = visibleTiles.getMinX(zoom); x <= visibleTiles.getMaxX(zoom); x++) {
+            for (int y = visibleTiles.getMinY(zoom); y <= visibleTiles.getMaxY(zoom); y++) {
+                if (count++ >= MAX_PREFETCHED_TILES_PER_LEVEL)
+                    return;
+                tileProvider.prefetchTile(x, y, zoom);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.ubudu.gmaps.util;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.File;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Google Maps Android V2 tile overlay provider serving tiles from a local
+ * <a href="https://github.com/mapbox/mbtiles-spec">MBTiles</a> package file.</p>
+ * <p>The database is opened once, read-only, so that every tile costs a single indexed lookup
+ * and no file needs to be opened per tile. The provider should be closed with {@link #close()}
+ * once its tile overlay has been removed from the map. Closing waits for the lookups in progress,
+ * later lookups return {@link #NO_TILE}.</p>
+ * <p>Usage example:<pre>
+ mapLayout.addTileOverlay(new MBTilesTileProvider(new File(venueDir, "floor_0.mbtiles"), 256, 256),
+ southWestBound, northEastBound);
+ * </pre></p>
+ */
+public class MBTilesTileProvider implements TileProvider {
+
+    public static final String TAG = MBTilesTileProvider.class.getCanonicalName();
+
+    private static final String TILE_QUERY = "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private final int mTileWidth;
+    private final int mTileHeight;
+    private final SQLiteDatabase mDatabase;
+    // lookups share the read lock, closing takes the write lock so that no query runs on a closed database
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+    private boolean mClosed;
+
+    /**
+     * @param mbtilesFile MBTiles package file
+     * @param mTileWidth width of the tiles stored in the package
+     * @param mTileHeight height of the tiles stored in the package
+     * @throws SQLiteException if the package file could not be opened
+     */
+    public MBTilesTileProvider(File mbtilesFile, int mTileWidth, int mTileHeight) {
+        this.mTileWidth = mTileWidth;
+        this.mTileHeight = mTileHeight;
+        mDatabase = SQLiteDatabase.openDatabase(mbtilesFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int z) {
+        byte[] tileImage = getTileImage(x, y, z);
+        if (tileImage != null) {
+            return new Tile(mTileWidth, mTileHeight, tileImage);
+        }
+        return NO_TILE;
+    }
+
+    /**
+     * Looks the tile up in the package. The query string never changes, so SQLite reuses
+     * the statement prepared for the first tile.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @return byte data of the image or <i>null</i> if the package does not contain the tile.
+     */
+    private byte[] getTileImage(int x, int y, int z) {
+        // MBTiles rows follow the TMS scheme, with the origin in the bottom left corner
+        int tmsY = (1 << z) - y - 1;
+        Cursor cursor = null;
+        mLock.readLock().lock();
+        try {
+            if (mClosed) {
+                return null;
+            }
+            cursor = mDatabase.rawQuery(TILE_QUERY, new String[]{
+                    String.valueOf(z), String.valueOf(x), String.valueOf(tmsY)});
+            if (cursor.moveToFirst()) {
+                return cursor.getBlob(0);
+            }
+        } catch (SQLiteException e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            mLock.readLock().unlock();
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new TileOverlayOptions object to be used with {@link com.google.android.gms.maps.GoogleMap#addTileOverlay(TileOverlayOptions) map.addTileOverlay()}
+     * @return a TileOverlayOptions with this object set as a tile provider plus fadeIn set to false
+     */
+    public TileOverlayOptions createTileOverlayOptions() {
+        return CachingUrlTileProvider.createTileOverlayOptions(this);
+    }
+
+    /**
+     * Closes the underlying package file once the lookups in progress are done. No more tiles are served afterwards.
+     */
+    public void close() {
+        mLock.writeLock().lock();
+        try {
+            if (!mClosed) {
+                mClosed = true;
+                mDatabase.close();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+}
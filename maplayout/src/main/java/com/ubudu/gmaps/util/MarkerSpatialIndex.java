@@ -0,0 +1,164 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.SphericalUtil;
+import com.ubudu.gmaps.model.Marker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Spatial index of markers on a uniform grid over Web Mercator coordinates, so that the markers
+ * in a region are found by checking the markers of the grid cells overlapping the region only.</p>
+ * <p>Cells are the map tiles at {@link #GRID_ZOOM}, i.e. about 76 m wide at the equator and less
+ * at higher latitudes, which suits the density of indoor points of interest.</p>
+ */
+public class MarkerSpatialIndex {
+
+    public static final int GRID_ZOOM = 19;
+    private static final double MAX_LATITUDE = 85.05;
+    // same as SphericalUtil
+    private static final double EARTH_RADIUS = 6371009; // m
+
+    private final Map<Long, List<Marker>> mCells = new HashMap<>();
+    private int mMarkerCount;
+
+    /**
+     * @param marker marker to be indexed
+     */
+    public synchronized void add(Marker marker) {
+        long cell = getCell(marker.getLocation());
+        List<Marker> markers = mCells.get(cell);
+        if (markers == null) {
+            markers = new ArrayList<>(4);
+            mCells.put(cell, markers);
+        }
+        markers.add(marker);
+        mMarkerCount++;
+    }
+
+    /**
+     * @param marker marker to be removed from the index
+     */
+    public synchronized void remove(Marker marker) {
+        long cell = getCell(marker.getLocation());
+        List<Marker> markers = mCells.get(cell);
+        if (markers == null)
+            return;
+        // markers are compared by identity, equal markers may be indexed separately
+        for (int i = 0; i < markers.size(); i++) {
+            if (markers.get(i) == marker) {
+                markers.remove(i);
+                mMarkerCount--;
+                break;
+            }
+        }
+        if (markers.isEmpty())
+            mCells.remove(cell);
+    }
+
+    /**
+     * Removes all the markers from the index
+     */
+    public synchronized void clear() {
+        mCells.clear();
+        mMarkerCount = 0;
+    }
+
+    /**
+     * @param bounds bounds to look in
+     * @return new list of the markers located within the bounds
+     */
+    public synchronized List<Marker> findInBounds(LatLngBounds bounds) {
+        List<Marker> result = new ArrayList<>();
+        for (List<Marker> markers : getCandidateCells(bounds)) {
+            for (Marker marker : markers) {
+                if (bounds.contains(marker.getLocation()))
+                    result.add(marker);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param center center of the circle to look in
+     * @param meters radius of the circle in meters
+     * @return new list of the markers located within the circle
+     */
+    public synchronized List<Marker> findWithin(LatLng center, double meters) {
+        LatLngBounds bounds = getBoundingBox(center, meters);
+        Collection<List<Marker>> cells = bounds != null ? getCandidateCells(bounds) : mCells.values();
+        List<Marker> result = new ArrayList<>();
+        for (List<Marker> markers : cells) {
+            for (Marker marker : markers) {
+                // the bounds check rejects most of the markers out of the circle before the costlier distance computation
+                if ((bounds == null || bounds.contains(marker.getLocation()))
+                        && SphericalUtil.computeDistanceBetween(center, marker.getLocation()) <= meters)
+                    result.add(marker);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The meridians tangent to the circle do not go through the points due east and west of the center
+     * but through points closer to the pole, further from the center meridian. The longitude half-width
+     * of the circle is asin(sin(d/R) / cos(latitude)).
+     *
+     * @param center center of the circle
+     * @param meters radius of the circle in meters
+     * @return smallest bounds containing the circle, null if the circle contains a pole and thus spans all the longitudes
+     */
+    static LatLngBounds getBoundingBox(LatLng center, double meters) {
+        double distance = meters / EARTH_RADIUS;
+        double latitude = Math.toRadians(center.latitude);
+        double minLatitude = latitude - distance;
+        double maxLatitude = latitude + distance;
+        if (minLatitude <= -Math.PI / 2 || maxLatitude >= Math.PI / 2)
+            return null;
+        // sin(distance) < cos(latitude) as the circle does not reach the poles
+        double halfWidth = Math.toDegrees(Math.asin(Math.sin(distance) / Math.cos(latitude)));
+        return new LatLngBounds(
+                new LatLng(Math.toDegrees(minLatitude), center.longitude - halfWidth),
+                new LatLng(Math.toDegrees(maxLatitude), center.longitude + halfWidth));
+    }
+
+    public synchronized int size() {
+        return mMarkerCount;
+    }
+
+    /**
+     * @return lists of markers of the cells overlapping the bounds
+     */
+    private List<List<Marker>> getCandidateCells(LatLngBounds bounds) {
+        int minX = (int) Math.floor(Mercator.lngToX(bounds.southwest.longitude, GRID_ZOOM) / 256);
+        int maxX = (int) Math.floor(Mercator.lngToX(bounds.northeast.longitude, GRID_ZOOM) / 256);
+        int minY = (int) Math.floor(Mercator.latToY(bounds.northeast.latitude, GRID_ZOOM) / 256);
+        int maxY = (int) Math.floor(Mercator.latToY(bounds.southwest.latitude, GRID_ZOOM) / 256);
+        long cellCount = minX <= maxX ? ((long) maxX - minX + 1) * ((long) maxY - minY + 1) : Long.MAX_VALUE;
+        // for wide regions, or regions crossing the antimeridian, checking all the non empty cells is cheaper
+        if (cellCount > mCells.size())
+            return new ArrayList<>(mCells.values());
+
+        List<List<Marker>> cells = new ArrayList<>();
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                List<Marker> markers = mCells.get(TileKey.of(x, y, GRID_ZOOM));
+                if (markers != null)
+                    cells.add(markers);
+            }
+        }
+        return cells;
+    }
+
+    private static long getCell(LatLng location) {
+        // the Mercator projection does not reach the poles
+        double latitude = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, location.latitude));
+        return TileKey.of((int) Math.floor(Mercator.lngToX(location.longitude, GRID_ZOOM) / 256),
+                (int) Math.floor(Mercator.latToY(latitude, GRID_ZOOM) / 256), GRID_ZOOM);
+    }
+}
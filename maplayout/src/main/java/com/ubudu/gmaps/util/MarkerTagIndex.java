@@ -0,0 +1,116 @@
+package com.ubudu.gmaps.util;
+
+import com.ubudu.gmaps.model.Marker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Inverted index of markers by tag, so that markers having a set of tags are found without
+ * checking the tags of every marker.</p>
+ * <p>Multi-tag lookups iterate the markers of the rarest tag only and check them against the sets
+ * of the other tags, from the rarest to the most common, so that the cost depends on the size of
+ * the smallest set instead of on the number of markers.</p>
+ * <p>Tags changes of the indexed markers must be reported with {@link #addTag(Marker, String)} and
+ * {@link #removeTag(Marker, String)}, typically from a {@link Marker.ChangeListener}.</p>
+ */
+public class MarkerTagIndex {
+
+    private final Map<String, Set<Marker>> mMarkersByTag = new HashMap<>();
+
+    /**
+     * @param marker marker to be indexed
+     */
+    public synchronized void add(Marker marker) {
+        for (String tag : marker.getTags())
+            addTag(marker, tag);
+    }
+
+    /**
+     * @param marker marker to be removed from the index
+     */
+    public synchronized void remove(Marker marker) {
+        for (String tag : marker.getTags())
+            removeTag(marker, tag);
+    }
+
+    /**
+     * Removes all the markers from the index
+     */
+    public synchronized void clear() {
+        mMarkersByTag.clear();
+    }
+
+    /**
+     * @param tags tags to look for, not empty
+     * @return new set of the markers having all the given tags
+     */
+    public synchronized Set<Marker> find(List<String> tags) {
+        List<Set<Marker>> sets = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            Set<Marker> markers = mMarkersByTag.get(tag);
+            if (markers == null)
+                return new HashSet<>();
+            sets.add(markers);
+        }
+        Collections.sort(sets, new Comparator<Set<Marker>>() {
+            @Override
+            public int compare(Set<Marker> first, Set<Marker> second) {
+                return first.size() - second.size();
+            }
+        });
+
+        Set<Marker> rarest = sets.get(0);
+        Set<Marker> result = new HashSet<>(rarest.size() * 2);
+        for (Marker marker : rarest) {
+            boolean markerMatchesTags = true;
+            for (int i = 1; i < sets.size(); i++) {
+                if (!sets.get(i).contains(marker)) {
+                    markerMatchesTags = false;
+                    break;
+                }
+            }
+            if (markerMatchesTags)
+                result.add(marker);
+        }
+        return result;
+    }
+
+    /**
+     * @param tag tag
+     * @return number of markers having the tag
+     */
+    public synchronized int getMarkerCount(String tag) {
+        Set<Marker> markers = mMarkersByTag.get(tag);
+        return markers == null ? 0 : markers.size();
+    }
+
+    /**
+     * @param marker indexed marker
+     * @param tag tag added to the marker
+     */
+    public synchronized void addTag(Marker marker, String tag) {
+        Set<Marker> markers = mMarkersByTag.get(tag);
+        if (markers == null) {
+            markers = new HashSet<>();
+            mMarkersByTag.put(tag, markers);
+        }
+        markers.add(marker);
+    }
+
+    /**
+     * @param marker indexed marker
+     * @param tag tag the marker does not have anymore
+     */
+    public synchronized void removeTag(Marker marker, String tag) {
+        Set<Marker> markers = mMarkersByTag.get(tag);
+        if (markers != null && markers.remove(marker) && markers.isEmpty())
+            mMarkersByTag.remove(tag);
+    }
+}
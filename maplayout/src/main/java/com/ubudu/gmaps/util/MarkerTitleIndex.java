@@ -0,0 +1,96 @@
+package com.ubudu.gmaps.util;
+
+import com.ubudu.gmaps.model.Marker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>Index of markers sorted by title, so that markers whose title starts with a prefix are found
+ * with a binary search followed by a scan of the matching titles only, e.g. for search as you type.</p>
+ * <p>Titles changes of the indexed markers must be reported with {@link #updateTitle(Marker, String)},
+ * typically from a {@link Marker.ChangeListener}.</p>
+ */
+public class MarkerTitleIndex {
+
+    private final TreeMap<String, Set<Marker>> mMarkersByTitle = new TreeMap<>();
+
+    /**
+     * @param marker marker to be indexed
+     */
+    public synchronized void add(Marker marker) {
+        add(marker, getKey(marker.getTitle()));
+    }
+
+    /**
+     * @param marker marker to be removed from the index
+     */
+    public synchronized void remove(Marker marker) {
+        remove(marker, getKey(marker.getTitle()));
+    }
+
+    /**
+     * @param marker indexed marker
+     * @param oldTitle title of the marker before its change
+     */
+    public synchronized void updateTitle(Marker marker, String oldTitle) {
+        remove(marker, getKey(oldTitle));
+        add(marker, getKey(marker.getTitle()));
+    }
+
+    /**
+     * Removes all the markers from the index
+     */
+    public synchronized void clear() {
+        mMarkersByTitle.clear();
+    }
+
+    /**
+     * @param prefix beginning of the titles to look for
+     * @return new list of the markers whose title starts with the prefix, sorted by title
+     */
+    public synchronized List<Marker> findByPrefix(String prefix) {
+        List<Marker> result = new ArrayList<>();
+        // all the titles starting with the prefix sort right after it, up to the first one which does not
+        // start with it, whatever chars follow the prefix
+        for (Map.Entry<String, Set<Marker>> entry : mMarkersByTitle.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix))
+                break;
+            result.addAll(entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * @param title title to look for
+     * @return new list of the markers having exactly the title
+     */
+    public synchronized List<Marker> find(String title) {
+        Set<Marker> markers = mMarkersByTitle.get(getKey(title));
+        return markers == null ? Collections.<Marker>emptyList() : new ArrayList<>(markers);
+    }
+
+    private void add(Marker marker, String key) {
+        Set<Marker> markers = mMarkersByTitle.get(key);
+        if (markers == null) {
+            markers = new HashSet<>(2);
+            mMarkersByTitle.put(key, markers);
+        }
+        markers.add(marker);
+    }
+
+    private void remove(Marker marker, String key) {
+        Set<Marker> markers = mMarkersByTitle.get(key);
+        if (markers != null && markers.remove(marker) && markers.isEmpty())
+            mMarkersByTitle.remove(key);
+    }
+
+    private static String getKey(String title) {
+        return title != null ? title : "";
+    }
+}
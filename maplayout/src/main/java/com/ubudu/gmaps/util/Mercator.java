@@ -18,6 +18,29 @@ public class Mercator {
         return (Math.PI/2-2*Math.atan(Math.exp((double)((y<<(21 - zoom))-Mercator.OFFSET)/Mercator.RADIUS)))*180.0/Math.PI;
     }
 
+    /**
+     * Inverse of {@link #xToLng(int, int)}, valid for any zoom level
+     *
+     * @param lng longitude in degrees
+     * @param zoom zoom level
+     * @return x cartesian coordinate
+     */
+    public static double lngToX(double lng, int zoom) {
+        return Math.scalb(Mercator.OFFSET + Mercator.RADIUS*lng*Math.PI/180.0, zoom - 21);
+    }
+
+    /**
+     * Inverse of {@link #yToLat(int, int)}, valid for any zoom level
+     *
+     * @param lat latitude in degrees
+     * @param zoom zoom level
+     * @return y cartesian coordinate
+     */
+    public static double latToY(double lat, int zoom) {
+        double sin = Math.sin(lat*Math.PI/180.0);
+        return Math.scalb(Mercator.OFFSET - Mercator.RADIUS*0.5*Math.log((1+sin)/(1-sin)), zoom - 21);
+    }
+
     /**
      *
      * @param x x cartesian coordinate
@@ -0,0 +1,68 @@
+package com.ubudu.gmaps.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Coalesces concurrent loads of the same key: while a load is in flight, other callers asking
+ * for the same key wait for its result instead of starting their own load.</p>
+ * <p>Results are not kept once the load is done, caching is up to the loader.</p>
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, FutureTask<V>> mInFlight = new ConcurrentHashMap<>();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    /**
+     * Runs the loader on the calling thread, unless a load for the same key is already in flight,
+     * in which case its result is awaited.
+     *
+     * @param key key of the load
+     * @param loader loader producing the result
+     * @return result of the load
+     * @throws ExecutionException if the loader threw an exception
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the result
+     */
+    public V execute(K key, Callable<V> loader) throws ExecutionException, InterruptedException {
+        FutureTask<V> task = new FutureTask<>(loader);
+        FutureTask<V> inFlight = mInFlight.putIfAbsent(key, task);
+        if (inFlight != null) {
+            mCoalescedCount.incrementAndGet();
+            return inFlight.get();
+        }
+        try {
+            task.run();
+            return task.get();
+        } finally {
+            mInFlight.remove(key, task);
+        }
+    }
+
+    /**
+     * @param key key of the load
+     * @return true if a load for the key is in flight
+     */
+    public boolean isInFlight(K key) {
+        return mInFlight.containsKey(key);
+    }
+
+    /**
+     * @return number of loads currently in flight
+     */
+    public int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    /**
+     * @return number of callers that shared the result of a load started by another caller
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+}
@@ -0,0 +1,324 @@
+package com.ubudu.gmaps.util;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Disk cache of encoded tile images, one file per tile named after the MD5 of its key.
+ * Along with the image, each file holds the time it was stored and the HTTP validators
+ * needed to revalidate it.</p>
+ * <p>When the total size exceeds the limit, the least recently used files are deleted.
+ * The cache directory is scanned lazily on first use, never on the calling thread of the constructor.</p>
+ */
+public class TileDiskCache {
+
+    public static final String TAG = TileDiskCache.class.getCanonicalName();
+
+    public static final long DEFAULT_MAX_SIZE = 50 * 1024 * 1024; // bytes
+
+    private static final String FILE_SUFFIX = ".tile";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int FILE_MAGIC = 0x75746c31; // "utl1"
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final AtomicLong mSize = new AtomicLong();
+    private volatile boolean mInitialized;
+
+    private static final ThreadLocal<MessageDigest> sDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * @param directory directory of the cache files
+     * @param maxSize maximum total size of the cache files in bytes
+     */
+    public TileDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @param key tile key, usually its url
+     * @return cached tile or null if not cached
+     */
+    public Entry get(String key) {
+        ensureInitialized();
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            Entry entry = readEntry(file);
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException e) {
+            // unreadable or written in an older format
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * @param key tile key, usually its url
+     * @return true if the tile is cached, without reading it
+     */
+    public boolean contains(String key) {
+        ensureInitialized();
+        return getFile(key).exists();
+    }
+
+    /**
+     * Stores the tile image as fetched now, without HTTP validators
+     *
+     * @param key tile key, usually its url
+     * @param data encoded tile image
+     */
+    public void put(String key, byte[] data) {
+        put(key, new Entry(data, null, null, System.currentTimeMillis()));
+    }
+
+    /**
+     * @param key tile key, usually its url
+     * @param entry tile to be stored
+     */
+    public void put(String key, Entry entry) {
+        ensureInitialized();
+        File file = getFile(key);
+        File tempFile = new File(mDirectory, file.getName() + "." + Thread.currentThread().getId() + TEMP_FILE_SUFFIX);
+        try {
+            DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                writeEntry(stream, entry);
+            } finally {
+                stream.close();
+            }
+            long length = tempFile.length();
+            long previousLength = file.length();
+            // the rename is atomic so readers never see a partially written tile
+            if (tempFile.renameTo(file)) {
+                mSize.addAndGet(length - previousLength);
+            } else {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+        }
+        if (mSize.get() > mMaxSize) {
+            trim();
+        }
+    }
+
+    /**
+     * @param key tile key, usually its url
+     */
+    public void remove(String key) {
+        ensureInitialized();
+        File file = getFile(key);
+        long length = file.length();
+        if (file.delete()) {
+            mSize.addAndGet(-length);
+        }
+    }
+
+    /**
+     * Deletes all the cached tiles
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSize.set(0);
+    }
+
+    /**
+     * @return total size of the cached tiles in bytes
+     */
+    public long getSize() {
+        ensureInitialized();
+        return mSize.get();
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    private File getFile(String key) {
+        byte[] digest = sDigest.get().digest(key.getBytes());
+        char[] name = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            name[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            name[2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+        return new File(mDirectory, new String(name) + FILE_SUFFIX);
+    }
+
+    private void ensureInitialized() {
+        if (mInitialized) {
+            return;
+        }
+        synchronized (this) {
+            if (mInitialized) {
+                return;
+            }
+            if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+                Log.e(TAG, "Cannot create tile cache directory " + mDirectory);
+            }
+            long size = 0;
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                        file.delete();
+                    } else {
+                        size += file.length();
+                    }
+                }
+            }
+            mSize.set(size);
+            mInitialized = true;
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the cache takes 90% of its maximum size
+     */
+    private synchronized void trim() {
+        if (mSize.get() <= mMaxSize) {
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return lastModified[lhs] < lastModified[rhs] ? -1 : (lastModified[lhs] == lastModified[rhs] ? 0 : 1);
+            }
+        });
+        long targetSize = mMaxSize * 9 / 10;
+        for (Integer index : order) {
+            if (mSize.get() <= targetSize) {
+                break;
+            }
+            File file = files[index];
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mSize.addAndGet(-length);
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream stream, Entry entry) throws IOException {
+        stream.writeInt(FILE_MAGIC);
+        stream.writeLong(entry.getStoredAt());
+        stream.writeUTF(entry.getETag() != null ? entry.getETag() : "");
+        stream.writeUTF(entry.getLastModified() != null ? entry.getLastModified() : "");
+        stream.writeInt(entry.getData().length);
+        stream.write(entry.getData());
+    }
+
+    private static Entry readEntry(File file) throws IOException {
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (stream.readInt() != FILE_MAGIC) {
+                throw new IOException("Unknown tile file format " + file);
+            }
+            long storedAt = stream.readLong();
+            String eTag = stream.readUTF();
+            String lastModified = stream.readUTF();
+            byte[] data = new byte[stream.readInt()];
+            stream.readFully(data);
+            return new Entry(data, eTag.length() > 0 ? eTag : null, lastModified.length() > 0 ? lastModified : null, storedAt);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Cached tile image with its metadata
+     */
+    public static class Entry {
+
+        private final byte[] data;
+        private final String eTag;
+        private final String lastModified;
+        private final long storedAt;
+
+        /**
+         * @param data encoded tile image
+         * @param eTag ETag of the tile image, null if unknown
+         * @param lastModified Last-Modified date of the tile image, null if unknown
+         * @param storedAt time the tile image was fetched or last revalidated, in ms since epoch
+         */
+        public Entry(byte[] data, String eTag, String lastModified, long storedAt) {
+            this.data = data;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getStoredAt() {
+            return storedAt;
+        }
+
+        /**
+         * @param maxAge maximum age of a fresh tile in ms
+         * @return true if the tile is older than the given maximum age
+         */
+        public boolean isStale(long maxAge) {
+            return System.currentTimeMillis() - storedAt > maxAge;
+        }
+    }
+}
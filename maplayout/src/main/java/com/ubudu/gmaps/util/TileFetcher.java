@@ -0,0 +1,19 @@
+package com.ubudu.gmaps.util;
+
+import java.io.IOException;
+
+/**
+ * Downloads encoded tile images for {@link CachingUrlTileProvider}.
+ * Implementations are called concurrently from the map renderer threads and must be thread safe.
+ */
+public interface TileFetcher {
+
+    /**
+     * Synchronously downloads the tile image.
+     *
+     * @param url url of the tile
+     * @return encoded tile image or <i>null</i> if the server has no image for this tile
+     * @throws IOException if the tile could not be downloaded
+     */
+    byte[] fetch(String url) throws IOException;
+}
@@ -0,0 +1,41 @@
+package com.ubudu.gmaps.util;
+
+/**
+ * Packs tile coordinates into a single long to be used as a map key.
+ * 29 bits are kept for each of x and y, which covers zoom levels up to 29.
+ */
+public class TileKey {
+
+    private static final int COORDINATE_BITS = 29;
+    private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+
+    /**
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @return key of the given tile
+     */
+    public static long of(int x, int y, int z) {
+        return ((long) z << (2 * COORDINATE_BITS)) | ((x & COORDINATE_MASK) << COORDINATE_BITS) | (y & COORDINATE_MASK);
+    }
+
+    public static int x(long key) {
+        return (int) ((key >>> COORDINATE_BITS) & COORDINATE_MASK);
+    }
+
+    public static int y(long key) {
+        return (int) (key & COORDINATE_MASK);
+    }
+
+    public static int z(long key) {
+        return (int) (key >>> (2 * COORDINATE_BITS));
+    }
+
+    /**
+     * @param key tile key
+     * @return human readable "z/x/y" representation of the key
+     */
+    public static String toString(long key) {
+        return z(key) + "/" + x(key) + "/" + y(key);
+    }
+}
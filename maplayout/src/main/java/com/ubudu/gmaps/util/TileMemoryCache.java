@@ -0,0 +1,219 @@
+package com.ubudu.gmaps.util;
+
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>In-memory LRU cache of encoded tile images, bounded by the total number of bytes held.</p>
+ * <p>Encoded tiles take a fraction of the memory their decoded bitmaps would, so many more of
+ * them fit in the same budget.</p>
+ * <p>Each tile keeps the time it was last validated against its source, so that tiles staying in
+ * memory are revalidated as well.</p>
+ */
+public class TileMemoryCache {
+
+    /**
+     * Validation time of the tiles which are never revalidated, e.g. synthesized or bundled ones
+     */
+    public static final long NOT_REVALIDATED = -1;
+
+    private final LruCache<Long, Entry> mCache;
+    // keys of the cached tiles, to check for a tile without counting a hit nor making it most recently used,
+    // only changed while holding the lock of this cache so that they match the cached tiles once each change is over
+    private final Set<Long> mKeys = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /**
+     * Creates a cache using 1/16 of the maximum heap size
+     */
+    public TileMemoryCache() {
+        this((int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param maxBytes maximum number of bytes of the cached tile images
+     */
+    public TileMemoryCache(int maxBytes) {
+        mCache = new LruCache<Long, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Entry value) {
+                return value.data.length;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Entry oldValue, Entry newValue) {
+                if (newValue == null)
+                    mKeys.remove(key);
+            }
+        };
+    }
+
+    /**
+     * @param key tile key, see {@link TileKey}
+     * @return cached tile image or null if not cached
+     */
+    public byte[] get(long key) {
+        Entry entry = mCache.get(key);
+        return entry != null ? entry.data : null;
+    }
+
+    /**
+     * @param key tile key, see {@link TileKey}
+     * @return cached tile image with its validation time or null if not cached
+     */
+    public Entry getEntry(long key) {
+        return mCache.get(key);
+    }
+
+    /**
+     * Tells whether the tile is cached, without counting a hit or a miss nor changing the eviction order,
+     * e.g. to skip prefetching it. Tiles being added or removed concurrently may be reported either way.
+     *
+     * @param key tile key, see {@link TileKey}
+     * @return true if the tile is cached
+     */
+    public boolean contains(long key) {
+        return mKeys.contains(key);
+    }
+
+    /**
+     * Caches a tile which is never revalidated
+     *
+     * @param key tile key, see {@link TileKey}
+     * @param tileImage encoded tile image
+     */
+    public void put(long key, byte[] tileImage) {
+        put(key, new Entry(tileImage, NOT_REVALIDATED));
+    }
+
+    /**
+     * @param key tile key, see {@link TileKey}
+     * @param entry tile image with its validation time
+     */
+    public synchronized void put(long key, Entry entry) {
+        // added before the tile, as its removal is notified after the tile is gone
+        mKeys.add(key);
+        mCache.put(key, entry);
+    }
+
+    /**
+     * @param key tile key, see {@link TileKey}
+     */
+    public synchronized void remove(long key) {
+        mCache.remove(key);
+    }
+
+    /**
+     * Removes all the cached tiles
+     */
+    public synchronized void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * @param maxBytes new maximum number of bytes of the cached tile images
+     */
+    public synchronized void resize(int maxBytes) {
+        mCache.resize(maxBytes);
+    }
+
+    /**
+     * @return current statistics of the cache
+     */
+    public Stats getStats() {
+        synchronized (mCache) {
+            return new Stats(mCache.hitCount(), mCache.missCount(), mCache.evictionCount(), mCache.size(), mCache.maxSize());
+        }
+    }
+
+    /**
+     * Cached tile image with the time it was last validated
+     */
+    public static class Entry {
+
+        private final byte[] data;
+        private final long validatedAt;
+
+        /**
+         * @param data encoded tile image
+         * @param validatedAt time the tile image was fetched or last revalidated, in ms since epoch,
+         *                    {@link #NOT_REVALIDATED} if it is never revalidated
+         */
+        public Entry(byte[] data, long validatedAt) {
+            this.data = data;
+            this.validatedAt = validatedAt;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public long getValidatedAt() {
+            return validatedAt;
+        }
+
+        /**
+         * @param maxAge maximum age of a fresh tile in ms
+         * @return true if the tile is revalidated and older than the given maximum age
+         */
+        public boolean isStale(long maxAge) {
+            return validatedAt != NOT_REVALIDATED && System.currentTimeMillis() - validatedAt > maxAge;
+        }
+    }
+
+    /**
+     * Snapshot of the tile memory cache statistics
+     */
+    public static class Stats {
+
+        private final int hitCount;
+        private final int missCount;
+        private final int evictionCount;
+        private final int residentBytes;
+        private final int maxBytes;
+
+        Stats(int hitCount, int missCount, int evictionCount, int residentBytes, int maxBytes) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.residentBytes = residentBytes;
+            this.maxBytes = maxBytes;
+        }
+
+        public int getHitCount() {
+            return hitCount;
+        }
+
+        public int getMissCount() {
+            return missCount;
+        }
+
+        public int getEvictionCount() {
+            return evictionCount;
+        }
+
+        public int getResidentBytes() {
+            return residentBytes;
+        }
+
+        public int getMaxBytes() {
+            return maxBytes;
+        }
+
+        /**
+         * @return ratio of the lookups which found the tile in the cache, 0 if there were no lookups
+         */
+        public float getHitRate() {
+            int lookups = hitCount + missCount;
+            return lookups == 0 ? 0 : (float) hitCount / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "hits: " + hitCount + ", misses: " + missCount + ", evictions: " + evictionCount
+                    + ", resident bytes: " + residentBytes + "/" + maxBytes;
+        }
+    }
+}
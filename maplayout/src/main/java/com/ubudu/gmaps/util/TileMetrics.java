@@ -0,0 +1,358 @@
+package com.ubudu.gmaps.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Timings and counters of the tile pipeline of a {@link CachingUrlTileProvider}.</p>
+ * <p>The time spent in each {@link Stage stage} is recorded per zoom level in histograms with
+ * power-of-two buckets, from under 16 microseconds to over 30 seconds, which makes recording
+ * lock-free and cheap enough to stay enabled in production.</p>
+ * <p>A {@link Listener} can be set to forward every measurement, timings and counter increments alike,
+ * to a telemetry backend, otherwise {@link #getHistogram(Stage, int) histogram snapshots} and counters
+ * can be read at any time.</p>
+ */
+public class TileMetrics {
+
+    /**
+     * Stages of the tile pipeline
+     */
+    public enum Stage {
+        /** whole tile request of the renderer, from {@link CachingUrlTileProvider#getTile(int, int, int)} call to return */
+        TOTAL,
+        MEMORY_CACHE,
+        /** lookup in the read-only tile sources, e.g. bundled assets */
+        TILE_SOURCES,
+        DISK_CACHE,
+        /** network request, excluding the time waiting for the scheduler */
+        NETWORK,
+        /** transcoding to the storage format */
+        TRANSCODE,
+        /** synthesis of a tile from its ancestor, excluding the loading of the ancestor */
+        OVERZOOM,
+        /** stitching of a tile from the tiles of the next zoom level, excluding their loading */
+        STITCH
+    }
+
+    /**
+     * Counters of the tile pipeline. A tile downloaded is a miss of all the caches.
+     */
+    public enum Counter {
+        /** tile request of the renderer */
+        REQUEST,
+        /** tile request answered without loading anything */
+        SHORT_CIRCUIT,
+        MEMORY_HIT,
+        TILE_SOURCE_HIT,
+        DISK_HIT,
+        NETWORK_FETCH,
+        /** bytes of tile images downloaded, as served */
+        BYTES_DOWNLOADED,
+        /** bytes of tile images handed to the renderer */
+        BYTES_SERVED
+    }
+
+    public static final int ZOOM_LEVELS = TileRange.MAX_ZOOM + 1;
+    public static final int BUCKETS = 22;
+    // upper bound of the first bucket, in microseconds
+    private static final int FIRST_BUCKET_MICROS = 16;
+
+    private static final int STAGES = Stage.values().length;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(STAGES * ZOOM_LEVELS * BUCKETS);
+    private final AtomicLongArray mTotalNanos = new AtomicLongArray(STAGES * ZOOM_LEVELS);
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mMemoryHitCount = new AtomicLong();
+    private final AtomicLong mTileSourceHitCount = new AtomicLong();
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+    private final AtomicLong mNetworkFetchCount = new AtomicLong();
+    private final AtomicLong mShortCircuitCount = new AtomicLong();
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+    private final AtomicLong mBytesServed = new AtomicLong();
+    private volatile Listener mListener;
+
+    /**
+     * Records the time spent in a stage for a tile
+     *
+     * @param stage stage of the pipeline
+     * @param zoom zoom level of the tile
+     * @param nanos time spent in ns
+     */
+    void record(Stage stage, int zoom, long nanos) {
+        if (zoom < 0 || zoom >= ZOOM_LEVELS) {
+            return;
+        }
+        int index = stage.ordinal() * ZOOM_LEVELS + zoom;
+        mBuckets.incrementAndGet(index * BUCKETS + getBucket(nanos));
+        mTotalNanos.addAndGet(index, nanos);
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onStageTimed(stage, zoom, nanos);
+        }
+    }
+
+    private static int getBucket(long nanos) {
+        long micros = nanos / 1000;
+        if (micros < FIRST_BUCKET_MICROS) {
+            return 0;
+        }
+        // 64 - numberOfLeadingZeros is the number of bits, i.e. floor(log2) + 1
+        int bucket = 64 - Long.numberOfLeadingZeros(micros / FIRST_BUCKET_MICROS);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * @param bucket bucket index
+     * @return exclusive upper bound of the bucket in microseconds, Long.MAX_VALUE for the last one
+     */
+    public static long getBucketUpperBoundMicros(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (long) FIRST_BUCKET_MICROS << bucket;
+    }
+
+    void onRequest() {
+        count(mRequestCount, Counter.REQUEST, 1);
+    }
+
+    void onMemoryHit() {
+        count(mMemoryHitCount, Counter.MEMORY_HIT, 1);
+    }
+
+    void onTileSourceHit() {
+        count(mTileSourceHitCount, Counter.TILE_SOURCE_HIT, 1);
+    }
+
+    void onDiskHit() {
+        count(mDiskHitCount, Counter.DISK_HIT, 1);
+    }
+
+    void onShortCircuit() {
+        count(mShortCircuitCount, Counter.SHORT_CIRCUIT, 1);
+    }
+
+    void onNetworkFetch(int bytes) {
+        count(mNetworkFetchCount, Counter.NETWORK_FETCH, 1);
+        count(mBytesDownloaded, Counter.BYTES_DOWNLOADED, bytes);
+    }
+
+    void onTileServed(int bytes) {
+        count(mBytesServed, Counter.BYTES_SERVED, bytes);
+    }
+
+    private void count(AtomicLong value, Counter counter, long delta) {
+        value.addAndGet(delta);
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onCounted(counter, delta);
+        }
+    }
+
+    /**
+     * @param stage stage of the pipeline
+     * @param zoom zoom level
+     * @return snapshot of the timings of the stage at the zoom level
+     * @throws IllegalArgumentException if the zoom level is not between 0 and {@link TileRange#MAX_ZOOM}
+     */
+    public Histogram getHistogram(Stage stage, int zoom) {
+        if (zoom < 0 || zoom >= ZOOM_LEVELS) {
+            throw new IllegalArgumentException("Invalid zoom level: " + zoom);
+        }
+        int index = stage.ordinal() * ZOOM_LEVELS + zoom;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mBuckets.get(index * BUCKETS + i);
+        }
+        return new Histogram(counts, mTotalNanos.get(index));
+    }
+
+    /**
+     * @param stage stage of the pipeline
+     * @return snapshot of the timings of the stage for all the zoom levels together
+     */
+    public Histogram getHistogram(Stage stage) {
+        long[] counts = new long[BUCKETS];
+        long totalNanos = 0;
+        for (int zoom = 0; zoom < ZOOM_LEVELS; zoom++) {
+            int index = stage.ordinal() * ZOOM_LEVELS + zoom;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += mBuckets.get(index * BUCKETS + i);
+            }
+            totalNanos += mTotalNanos.get(index);
+        }
+        return new Histogram(counts, totalNanos);
+    }
+
+    /**
+     * @return number of tile requests of the renderer
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getMemoryHitCount() {
+        return mMemoryHitCount.get();
+    }
+
+    /**
+     * @return number of tiles read from the read-only tile sources, see {@link CachingUrlTileProvider#addTileSource(TileSource)}
+     */
+    public long getTileSourceHitCount() {
+        return mTileSourceHitCount.get();
+    }
+
+    public long getDiskHitCount() {
+        return mDiskHitCount.get();
+    }
+
+    /**
+     * @return number of tiles downloaded
+     */
+    public long getNetworkFetchCount() {
+        return mNetworkFetchCount.get();
+    }
+
+    /**
+     * @return number of tile requests answered without loading anything, see {@link CachingUrlTileProvider#hasTile(int, int, int)}
+     */
+    public long getShortCircuitCount() {
+        return mShortCircuitCount.get();
+    }
+
+    /**
+     * @return number of bytes of tile images downloaded, as served
+     */
+    public long getBytesDownloaded() {
+        return mBytesDownloaded.get();
+    }
+
+    /**
+     * @return number of bytes of tile images handed to the renderer
+     */
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    /**
+     * Resets all the timings and counters, e.g. after they have been exported
+     */
+    public void reset() {
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+        for (int i = 0; i < mTotalNanos.length(); i++) {
+            mTotalNanos.set(i, 0);
+        }
+        mRequestCount.set(0);
+        mMemoryHitCount.set(0);
+        mTileSourceHitCount.set(0);
+        mDiskHitCount.set(0);
+        mNetworkFetchCount.set(0);
+        mShortCircuitCount.set(0);
+        mBytesDownloaded.set(0);
+        mBytesServed.set(0);
+    }
+
+    /**
+     * @param listener listener called with every measurement, on the thread which made it, null to remove
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append("requests: ").append(mRequestCount.get())
+                .append(", short-circuits: ").append(mShortCircuitCount.get())
+                .append(", memory hits: ").append(mMemoryHitCount.get())
+                .append(", tile source hits: ").append(mTileSourceHitCount.get())
+                .append(", disk hits: ").append(mDiskHitCount.get())
+                .append(", downloads: ").append(mNetworkFetchCount.get())
+                .append(", bytes downloaded: ").append(mBytesDownloaded.get())
+                .append(", bytes served: ").append(mBytesServed.get());
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = getHistogram(stage);
+            if (histogram.getCount() > 0) {
+                builder.append(", ").append(stage).append(": ").append(histogram);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Listener of the measurements, typically forwarding them to a telemetry backend.
+     * Called on the tile loading threads, so it must return quickly.
+     */
+    public interface Listener {
+        void onStageTimed(Stage stage, int zoom, long nanos);
+
+        /**
+         * @param counter counter incremented
+         * @param delta increment, 1 for the counts of tiles, the number of bytes for the byte counters
+         */
+        void onCounted(Counter counter, long delta);
+    }
+
+    /**
+     * Snapshot of the timings of a stage
+     */
+    public static class Histogram {
+
+        private final long[] counts;
+        private final long totalNanos;
+        private final long count;
+
+        Histogram(long[] counts, long totalNanos) {
+            this.counts = counts;
+            this.totalNanos = totalNanos;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @param bucket bucket index, see {@link TileMetrics#getBucketUpperBoundMicros(int)}
+         * @return number of measurements in the bucket
+         */
+        public long getBucketCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * @return mean time in microseconds
+         */
+        public long getMeanMicros() {
+            return count == 0 ? 0 : totalNanos / count / 1000;
+        }
+
+        /**
+         * @param percentile percentile, between 0 and 100
+         * @return upper bound in microseconds of the bucket holding the percentile, 0 if there is no measurement
+         */
+        public long getPercentileMicros(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return getBucketUpperBoundMicros(i);
+                }
+            }
+            return getBucketUpperBoundMicros(counts.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + count + ", mean: " + getMeanMicros() + "us, p50 < " + getPercentileMicros(50)
+                    + "us, p95 < " + getPercentileMicros(95) + "us, p99 < " + getPercentileMicros(99) + "us";
+        }
+    }
+}
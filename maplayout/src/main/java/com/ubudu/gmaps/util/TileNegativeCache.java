@@ -0,0 +1,174 @@
+package com.ubudu.gmaps.util;
+
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Bounded cache of the tiles which could not be loaded, so that they are not requested again
+ * on every camera move.</p>
+ * <p>Tiles missing from the tile source and tiles whose request failed are remembered for a time
+ * which doubles with each consecutive failure, up to a maximum. Missing tiles are remembered much
+ * longer than failed ones, which are more likely to be transient. A successful load forgets the tile.</p>
+ */
+public class TileNegativeCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+    public static final long DEFAULT_NOT_FOUND_TTL = 10 * 60 * 1000; // ms
+    public static final long DEFAULT_FAILURE_TTL = 5 * 1000; // ms
+    public static final long DEFAULT_MAX_TTL = 60 * 60 * 1000; // ms
+
+    private final LruCache<Long, Entry> mEntries;
+    private volatile long mNotFoundTtl = DEFAULT_NOT_FOUND_TTL;
+    private volatile long mFailureTtl = DEFAULT_FAILURE_TTL;
+    private volatile long mMaxTtl = DEFAULT_MAX_TTL;
+    private final AtomicLong mSkippedCount = new AtomicLong();
+    private final AtomicLong mNotFoundCount = new AtomicLong();
+    private final AtomicLong mFailureCount = new AtomicLong();
+    private final AtomicLong mBackoffCount = new AtomicLong();
+
+    public TileNegativeCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries maximum number of tiles remembered, least recently failed ones are forgotten first
+     */
+    public TileNegativeCache(int maxEntries) {
+        mEntries = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * Tells whether the tile failed recently and should not be requested. Counts the request as skipped if so.
+     *
+     * @param key tile key, see {@link TileKey}
+     * @return true if the tile should not be requested now
+     */
+    public boolean shouldSkip(long key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || SystemClock.elapsedRealtime() >= entry.retryAt) {
+            return false;
+        }
+        mSkippedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers that the tile source has no image for the tile
+     *
+     * @param key tile key, see {@link TileKey}
+     */
+    public void onNotFound(long key) {
+        mNotFoundCount.incrementAndGet();
+        onFailure(key, mNotFoundTtl);
+    }
+
+    /**
+     * Remembers that the request of the tile failed
+     *
+     * @param key tile key, see {@link TileKey}
+     */
+    public void onError(long key) {
+        mFailureCount.incrementAndGet();
+        onFailure(key, mFailureTtl);
+    }
+
+    /**
+     * Forgets the tile after it has been loaded. Synchronized with the failures, so that a success
+     * is not undone by a concurrent failure of the same tile computing its backoff from the old entry.
+     *
+     * @param key tile key, see {@link TileKey}
+     */
+    public synchronized void onSuccess(long key) {
+        mEntries.remove(key);
+    }
+
+    private synchronized void onFailure(long key, long ttl) {
+        Entry entry = mEntries.get(key);
+        int failures = entry != null ? entry.failures + 1 : 1;
+        if (failures > 1) {
+            mBackoffCount.incrementAndGet();
+        }
+        // exponential backoff, capped
+        long backoff = Math.min(mMaxTtl, ttl << Math.min(failures - 1, 20));
+        mEntries.put(key, new Entry(failures, SystemClock.elapsedRealtime() + backoff));
+    }
+
+    /**
+     * Forgets all the tiles
+     */
+    public synchronized void clear() {
+        mEntries.evictAll();
+    }
+
+    /**
+     * @return number of tiles currently remembered
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return number of tile requests skipped because the tile failed recently
+     */
+    public long getSkippedCount() {
+        return mSkippedCount.get();
+    }
+
+    /**
+     * @return number of tiles found missing from the tile source
+     */
+    public long getNotFoundCount() {
+        return mNotFoundCount.get();
+    }
+
+    /**
+     * @return number of failed tile requests
+     */
+    public long getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    /**
+     * @return number of failures of tiles which had failed already, i.e. of backoff increases
+     */
+    public long getBackoffCount() {
+        return mBackoffCount.get();
+    }
+
+    /**
+     * @param notFoundTtl time during which a missing tile is not requested again after its first miss, in ms
+     */
+    public TileNegativeCache setNotFoundTtl(long notFoundTtl) {
+        mNotFoundTtl = notFoundTtl;
+        return this;
+    }
+
+    /**
+     * @param failureTtl time during which a tile is not requested again after its first failure, in ms
+     */
+    public TileNegativeCache setFailureTtl(long failureTtl) {
+        mFailureTtl = failureTtl;
+        return this;
+    }
+
+    /**
+     * @param maxTtl maximum time during which a tile is not requested again, in ms
+     */
+    public TileNegativeCache setMaxTtl(long maxTtl) {
+        mMaxTtl = maxTtl;
+        return this;
+    }
+
+    private static class Entry {
+
+        final int failures;
+        final long retryAt;
+
+        Entry(int failures, long retryAt) {
+            this.failures = failures;
+            this.retryAt = retryAt;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.ubudu.gmaps.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Downloads all the tiles of a range into the cache of a {@link CachingUrlTileProvider}, for a
+ * range of zoom levels, so that the map never waits for the network afterwards.</p>
+ * <p>Tiles are loaded with a bounded number of concurrent requests. The prefetch can be cancelled
+ * at any time. Listener callbacks are made on the main thread.</p>
+ * <p>Usage example:<pre>
+ TilePrefetcher prefetcher = new TilePrefetcher(tileProvider, tileRange, 17, 21, 4).start(listener);
+ // ...
+ prefetcher.cancel();
+ * </pre></p>
+ */
+public class TilePrefetcher {
+
+    private final CachingUrlTileProvider mTileProvider;
+    private final TileRange mTileRange;
+    private final int mMinZoom;
+    private final int mMaxZoom;
+    private final int mConcurrency;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong mLoadedCount = new AtomicLong();
+    private final AtomicLong mFailedCount = new AtomicLong();
+    private volatile boolean mCancelled;
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    /**
+     * @param tileProvider provider whose cache the tiles are loaded into
+     * @param tileRange range of the tiles to load
+     * @param minZoom minimum zoom level
+     * @param maxZoom maximum zoom level
+     * @param concurrency maximum number of tiles loaded at once
+     */
+    public TilePrefetcher(CachingUrlTileProvider tileProvider, TileRange tileRange, int minZoom, int maxZoom, int concurrency) {
+        mTileProvider = tileProvider;
+        mTileRange = tileRange;
+        mMinZoom = Math.max(0, minZoom);
+        mMaxZoom = Math.min(maxZoom, TileRange.MAX_ZOOM);
+        mConcurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * @return number of tiles in the range for all the zoom levels
+     */
+    public long getTileCount() {
+        long count = 0;
+        for (int z = mMinZoom; z <= mMaxZoom; z++)
+            count += mTileRange.getTileCount(z);
+        return count;
+    }
+
+    /**
+     * Starts the prefetch in the background. Can be called once only.
+     *
+     * @param listener listener of the prefetch progress, may be null
+     * @return this prefetcher
+     */
+    public synchronized TilePrefetcher start(final Listener listener) {
+        if (mThread != null)
+            throw new IllegalStateException("Prefetch already started");
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                prefetch(listener);
+            }
+        }, "ubudu-map-tiles-prefetch");
+        mThread.start();
+        return this;
+    }
+
+    /**
+     * Cancels the prefetch. Tiles being loaded are completed, no other tile is loaded afterwards.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return number of tiles cached so far
+     */
+    public long getLoadedCount() {
+        return mLoadedCount.get();
+    }
+
+    /**
+     * @return number of tiles which could not be loaded so far
+     */
+    public long getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    private void prefetch(final Listener listener) {
+        final long total = getTileCount();
+        final long progressStep = Math.max(1, total / 100);
+        final Semaphore pendingTiles = new Semaphore(mConcurrency);
+        ExecutorService executor = Executors.newFixedThreadPool(mConcurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ubudu-map-tiles-prefetch-worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (int z = mMinZoom; z <= mMaxZoom && !mCancelled; z++) {
+                for (int x = mTileRange.getMinX(z); x <= mTileRange.getMaxX(z) && !mCancelled; x++) {
+                    for (int y = mTileRange.getMinY(z); y <= mTileRange.getMaxY(z) && !mCancelled; y++) {
+                        pendingTiles.acquire();
+                        final int tileX = x, tileY = y, tileZ = z;
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    if (mCancelled)
+                                        return;
+                                    if (mTileProvider.warmTile(tileX, tileY, tileZ))
+                                        mLoadedCount.incrementAndGet();
+                                    else
+                                        mFailedCount.incrementAndGet();
+                                    final long done = mLoadedCount.get() + mFailedCount.get();
+                                    if (listener != null && (done % progressStep == 0 || done == total))
+                                        mHandler.post(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                listener.onProgress(done, total);
+                                            }
+                                        });
+                                } finally {
+                                    pendingTiles.release();
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            mCancelled = true;
+        } finally {
+            executor.shutdownNow();
+            mRunning = false;
+        }
+
+        if (listener == null)
+            return;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled)
+                    listener.onCancelled(mLoadedCount.get(), mFailedCount.get());
+                else
+                    listener.onComplete(mLoadedCount.get(), mFailedCount.get());
+            }
+        });
+    }
+
+    /**
+     * Listener of the prefetch progress, called on the main thread
+     */
+    public interface Listener {
+        void onProgress(long done, long total);
+        void onComplete(long loaded, long failed);
+        void onCancelled(long loaded, long failed);
+    }
+}
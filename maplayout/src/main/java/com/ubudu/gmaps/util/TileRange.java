@@ -0,0 +1,97 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * <p>Ranges of tiles intersecting given bounds, precomputed once for every zoom level.</p>
+ * <p>Checking whether a tile intersects the bounds is then a plain integer comparison, free of
+ * trigonometry and allocations, which matters as tiles are requested in bursts of hundreds.</p>
+ */
+public class TileRange {
+
+    public static final int MAX_ZOOM = 30;
+
+    private final int mTileSize;
+    private final int[] mMinX = new int[MAX_ZOOM + 1];
+    private final int[] mMaxX = new int[MAX_ZOOM + 1];
+    private final int[] mMinY = new int[MAX_ZOOM + 1];
+    private final int[] mMaxY = new int[MAX_ZOOM + 1];
+
+    /**
+     * @param bounds bounds to be covered by the tiles
+     * @param tileSize size of a tile in pixels
+     */
+    public TileRange(LatLngBounds bounds, int tileSize) {
+        this(bounds, tileSize, 0, MAX_ZOOM);
+    }
+
+    /**
+     * Range computed for the given zoom levels only, it is empty at the other zoom levels.
+     * The bounds must not cross the antimeridian.
+     *
+     * @param bounds bounds to be covered by the tiles
+     * @param tileSize size of a tile in pixels
+     * @param minZoom minimum zoom level
+     * @param maxZoom maximum zoom level
+     */
+    public TileRange(LatLngBounds bounds, int tileSize, int minZoom, int maxZoom) {
+        mTileSize = tileSize;
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            if (zoom < minZoom || zoom > maxZoom) {
+                mMaxX[zoom] = -1;
+                mMaxY[zoom] = -1;
+                continue;
+            }
+            int maxTile = (int) Math.min((1L << zoom) - 1, Integer.MAX_VALUE);
+            // a tile touching the bounds edge counts as intersecting, same as MathUtils.intersects
+            mMinX[zoom] = clamp((int) Math.ceil(Mercator.lngToX(bounds.southwest.longitude, zoom) / tileSize) - 1, maxTile);
+            mMaxX[zoom] = clamp((int) Math.floor(Mercator.lngToX(bounds.northeast.longitude, zoom) / tileSize), maxTile);
+            mMinY[zoom] = clamp((int) Math.ceil(Mercator.latToY(bounds.northeast.latitude, zoom) / tileSize) - 1, maxTile);
+            mMaxY[zoom] = clamp((int) Math.floor(Mercator.latToY(bounds.southwest.latitude, zoom) / tileSize), maxTile);
+        }
+    }
+
+    private static int clamp(int value, int maxTile) {
+        return Math.max(0, Math.min(value, maxTile));
+    }
+
+    /**
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param zoom the zoom level
+     * @return true if the given tile intersects the bounds, false otherwise
+     */
+    public boolean contains(int x, int y, int zoom) {
+        if (zoom < 0 || zoom > MAX_ZOOM)
+            return false;
+        return x >= mMinX[zoom] && x <= mMaxX[zoom] && y >= mMinY[zoom] && y <= mMaxY[zoom];
+    }
+
+    public int getMinX(int zoom) {
+        return mMinX[zoom];
+    }
+
+    public int getMaxX(int zoom) {
+        return mMaxX[zoom];
+    }
+
+    public int getMinY(int zoom) {
+        return mMinY[zoom];
+    }
+
+    public int getMaxY(int zoom) {
+        return mMaxY[zoom];
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    /**
+     * @param zoom the zoom level
+     * @return number of tiles intersecting the bounds at the given zoom level
+     */
+    public long getTileCount(int zoom) {
+        return (long) (mMaxX[zoom] - mMinX[zoom] + 1) * (mMaxY[zoom] - mMinY[zoom] + 1);
+    }
+}
@@ -0,0 +1,53 @@
+package com.ubudu.gmaps.util;
+
+/**
+ * Result of a conditional tile request made by a {@link ConditionalTileFetcher}
+ */
+public class TileResponse {
+
+    public enum Status {
+        /** the tile image has been downloaded */
+        OK,
+        /** the cached tile image is still valid, no image has been downloaded */
+        NOT_MODIFIED,
+        /** the server has no image for this tile */
+        NOT_FOUND
+    }
+
+    private final Status status;
+    private final byte[] data;
+    private final String eTag;
+    private final String lastModified;
+
+    public TileResponse(Status status, byte[] data, String eTag, String lastModified) {
+        this.status = status;
+        this.data = data;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return downloaded tile image, null unless the status is {@link Status#OK}
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return value of the ETag response header, null if not sent
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return value of the Last-Modified response header, null if not sent
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+}
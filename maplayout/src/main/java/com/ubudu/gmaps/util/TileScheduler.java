@@ -0,0 +1,278 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Orders the network fetches of tile providers by their distance to the camera. A limited number
+ * of fetches run at once, pending ones are started closest to the camera target and zoom level first,
+ * so that the visible area fills first during fast camera moves.</p>
+ * <p>Pending fetches of tiles which have left the visible region are cancelled. Prefetches and
+ * background work never are, but always come after the tiles the renderer is waiting for, unless
+ * {@link #promote(int, int, int) promoted} because a renderer has started waiting for them too.</p>
+ * <p>The viewport is updated with {@link #setViewport(LatLngBounds, LatLng, float)}, typically from the
+ * camera move and idle listeners. A scheduler may be shared by several providers of the same map.</p>
+ */
+public class TileScheduler {
+
+    public static final int DEFAULT_MAX_RUNNING = 4;
+
+    // margin around the visible region, in tiles, within which pending fetches are kept
+    private static final double VISIBLE_MARGIN = 1;
+    // weight of one zoom level difference, in tiles from the camera target
+    private static final double ZOOM_WEIGHT = 4;
+    private static final double BACKGROUND_PRIORITY = 1e12;
+
+    private final int mMaxRunning;
+    private final PriorityQueue<Request> mPending = new PriorityQueue<>();
+    // number of renderer threads waiting for each promoted tile
+    private final HashMap<Long, Integer> mPromoted = new HashMap<>();
+    private int mRunning;
+    private long mSequence;
+    private boolean mHasViewport;
+    // viewport in world coordinates, i.e. tile coordinates at zoom 0, mMaxX is beyond 1 when the
+    // viewport crosses the antimeridian
+    private double mMinX;
+    private double mMaxX;
+    private double mMinY;
+    private double mMaxY;
+    private double mTargetX;
+    private double mTargetY;
+    private float mZoom;
+    private final AtomicLong mCancelledCount = new AtomicLong();
+
+    public TileScheduler() {
+        this(DEFAULT_MAX_RUNNING);
+    }
+
+    /**
+     * @param maxRunning maximum number of fetches running at once
+     */
+    public TileScheduler(int maxRunning) {
+        mMaxRunning = Math.max(1, maxRunning);
+    }
+
+    /**
+     * Updates the viewport. Pending fetches are reordered, those which have left the visible region
+     * are cancelled.
+     *
+     * @param visibleBounds bounds of the visible region
+     * @param target camera target
+     * @param zoom camera zoom level
+     */
+    public synchronized void setViewport(LatLngBounds visibleBounds, LatLng target, float zoom) {
+        mMinX = Mercator.lngToX(visibleBounds.southwest.longitude, 0) / 256;
+        mMaxX = Mercator.lngToX(visibleBounds.northeast.longitude, 0) / 256;
+        if (mMaxX < mMinX) {
+            // the viewport crosses the antimeridian, its eastern part is taken in the next world copy
+            mMaxX += 1;
+        }
+        mMinY = Mercator.latToY(visibleBounds.northeast.latitude, 0) / 256;
+        mMaxY = Mercator.latToY(visibleBounds.southwest.latitude, 0) / 256;
+        mTargetX = Mercator.lngToX(target.longitude, 0) / 256;
+        mTargetY = Mercator.latToY(target.latitude, 0) / 256;
+        mZoom = zoom;
+        mHasViewport = true;
+
+        List<Request> requests = new ArrayList<>(mPending);
+        mPending.clear();
+        for (Request request : requests) {
+            if (!request.background && !isVisible(request.x, request.y, request.z)) {
+                request.cancelled = true;
+                mCancelledCount.incrementAndGet();
+            } else {
+                request.priority = getPriority(request.x, request.y, request.z, request.background && !request.promoted);
+                mPending.add(request);
+            }
+        }
+        if (requests.size() != mPending.size()) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the fetch of the tile may start. Each successful call must be followed by a call
+     * to {@link #release()} once the fetch is over.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @param background true for prefetches and background work, which are started after the other
+     *                   fetches and never cancelled
+     * @return true if the fetch may start, false if it has been cancelled because the tile is not visible anymore
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean acquire(int x, int y, int z, boolean background) throws InterruptedException {
+        if (!background && mHasViewport && !isVisible(x, y, z)) {
+            mCancelledCount.incrementAndGet();
+            return false;
+        }
+        if (mRunning < mMaxRunning && mPending.isEmpty()) {
+            mRunning++;
+            return true;
+        }
+        boolean promoted = background && mPromoted.containsKey(TileKey.of(x, y, z));
+        Request request = new Request(x, y, z, background, promoted, getPriority(x, y, z, background && !promoted), mSequence++);
+        mPending.add(request);
+        try {
+            while (!request.started && !request.cancelled) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            if (request.started) {
+                release();
+            } else {
+                mPending.remove(request);
+            }
+            throw e;
+        }
+        return request.started;
+    }
+
+    /**
+     * Ends a fetch started with {@link #acquire(int, int, int, boolean)} and starts the pending fetch
+     * of highest priority, if any.
+     */
+    public synchronized void release() {
+        mRunning--;
+        Request next = mPending.poll();
+        if (next != null) {
+            next.started = true;
+            mRunning++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Gives the background fetch of the tile, pending or yet to come, the priority of the renderer
+     * fetches, as a renderer has started waiting for it. The fetch is still never cancelled.
+     * Each call must be followed by a call to {@link #demote(int, int, int)} once the renderer
+     * stops waiting.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     */
+    public synchronized void promote(int x, int y, int z) {
+        long key = TileKey.of(x, y, z);
+        Integer count = mPromoted.get(key);
+        mPromoted.put(key, count != null ? count + 1 : 1);
+        List<Request> promoted = null;
+        for (Iterator<Request> iterator = mPending.iterator(); iterator.hasNext(); ) {
+            Request request = iterator.next();
+            if (request.background && !request.promoted && request.x == x && request.y == y && request.z == z) {
+                // the queue is reordered by removing and adding the request again
+                iterator.remove();
+                request.promoted = true;
+                request.priority = getPriority(x, y, z, false);
+                if (promoted == null) {
+                    promoted = new ArrayList<>(1);
+                }
+                promoted.add(request);
+            }
+        }
+        if (promoted != null) {
+            mPending.addAll(promoted);
+        }
+    }
+
+    /**
+     * Ends a {@link #promote(int, int, int) promotion}. Fetches already queued keep their priority.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     */
+    public synchronized void demote(int x, int y, int z) {
+        long key = TileKey.of(x, y, z);
+        Integer count = mPromoted.get(key);
+        if (count == null || count <= 1) {
+            mPromoted.remove(key);
+        } else {
+            mPromoted.put(key, count - 1);
+        }
+    }
+
+    /**
+     * @return number of fetches cancelled because their tile left the visible region
+     */
+    public long getCancelledCount() {
+        return mCancelledCount.get();
+    }
+
+    /**
+     * @return number of fetches waiting to start
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    public int getMaxRunning() {
+        return mMaxRunning;
+    }
+
+    private boolean isVisible(int x, int y, int z) {
+        double scale = Math.scalb(1.0, z);
+        if (y + 1 + VISIBLE_MARGIN <= mMinY * scale || y - VISIBLE_MARGIN >= mMaxY * scale) {
+            return false;
+        }
+        // east of the antimeridian, the tile is also checked in the next world copy
+        return isVisibleX(x, scale) || isVisibleX(x + scale, scale);
+    }
+
+    private boolean isVisibleX(double x, double scale) {
+        return x + 1 + VISIBLE_MARGIN > mMinX * scale && x - VISIBLE_MARGIN < mMaxX * scale;
+    }
+
+    /**
+     * @return priority of the tile, lowest first
+     */
+    private double getPriority(int x, int y, int z, boolean background) {
+        double priority = background ? BACKGROUND_PRIORITY : 0;
+        if (!mHasViewport) {
+            return priority;
+        }
+        double scale = Math.scalb(1.0, z);
+        double dx = Math.abs(x + 0.5 - mTargetX * scale);
+        // the shortest way may be across the antimeridian
+        dx = Math.min(dx, scale - dx);
+        double dy = y + 0.5 - mTargetY * scale;
+        return priority + Math.sqrt(dx * dx + dy * dy) + ZOOM_WEIGHT * Math.abs(z - Math.round(mZoom));
+    }
+
+    private static class Request implements Comparable<Request> {
+
+        final int x;
+        final int y;
+        final int z;
+        final boolean background;
+        final long sequence;
+        boolean promoted;
+        double priority;
+        boolean started;
+        boolean cancelled;
+
+        Request(int x, int y, int z, boolean background, boolean promoted, double priority, long sequence) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.background = background;
+            this.promoted = promoted;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            int result = Double.compare(priority, other.priority);
+            return result != 0 ? result : (sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1));
+        }
+    }
+}
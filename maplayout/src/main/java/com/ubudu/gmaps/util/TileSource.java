@@ -0,0 +1,21 @@
+package com.ubudu.gmaps.util;
+
+import java.io.IOException;
+
+/**
+ * <p>Read-only source of tile images consulted by a {@link CachingUrlTileProvider} before its disk
+ * cache and the network, e.g. tiles bundled with the application, see {@link AssetTileSource}.</p>
+ */
+public interface TileSource {
+
+    /**
+     * Synchronously reads the tile image
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @param z the zoom level
+     * @return encoded tile image or null if the source has no image for the tile
+     * @throws IOException if the tile could not be read
+     */
+    byte[] getTileImage(int x, int y, int z) throws IOException;
+}
@@ -0,0 +1,189 @@
+package com.ubudu.gmaps.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Format in which downloaded tiles are stored in the memory and disk caches.</p>
+ * <p>Tiles are transcoded once, when they are downloaded, and kept in the source format whenever
+ * the transcoded image would not be smaller. Flat color floor plans usually take far less space
+ * as WebP than as PNG.</p>
+ * <p>{@link #getStats()} reports the resulting bytes per tile and decode time, so that the best trade-off
+ * can be picked per venue.</p>
+ */
+public class TileStorageFormat {
+
+    /**
+     * Every n-th stored tile is decoded to measure the decode time of the format
+     */
+    private static final int DECODE_SAMPLING = 16;
+
+    private final Bitmap.CompressFormat compressFormat;
+    private final int quality;
+    private final Stats stats = new Stats();
+
+    private TileStorageFormat(Bitmap.CompressFormat compressFormat, int quality) {
+        this.compressFormat = compressFormat;
+        this.quality = quality;
+    }
+
+    /**
+     * @return format keeping the tiles exactly as served
+     */
+    public static TileStorageFormat original() {
+        return new TileStorageFormat(null, 0);
+    }
+
+    /**
+     * @return lossless PNG format
+     */
+    public static TileStorageFormat png() {
+        return new TileStorageFormat(Bitmap.CompressFormat.PNG, 100);
+    }
+
+    /**
+     * @param quality compression quality, from 0 to 99
+     * @return lossy WebP format
+     */
+    public static TileStorageFormat webp(int quality) {
+        return new TileStorageFormat(Bitmap.CompressFormat.WEBP, Math.max(0, Math.min(quality, 99)));
+    }
+
+    /**
+     * Lossless WebP is produced on Android 10 and above; older versions encode the highest quality lossy WebP.
+     *
+     * @return lossless WebP format
+     */
+    public static TileStorageFormat webpLossless() {
+        return new TileStorageFormat(Bitmap.CompressFormat.WEBP, 100);
+    }
+
+    /**
+     * @param tileImage encoded tile image as downloaded
+     * @return tile image to be stored
+     */
+    public byte[] transcode(byte[] tileImage) {
+        if (compressFormat == null) {
+            stats.record(tileImage.length, tileImage.length, 0);
+            return tileImage;
+        }
+        long start = System.nanoTime();
+        Bitmap bitmap = BitmapFactory.decodeByteArray(tileImage, 0, tileImage.length);
+        if (bitmap == null) {
+            stats.record(tileImage.length, tileImage.length, System.nanoTime() - start);
+            return tileImage;
+        }
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(tileImage.length);
+        boolean compressed = bitmap.compress(compressFormat, quality, stream);
+        bitmap.recycle();
+        byte[] storedImage = compressed && stream.size() < tileImage.length ? stream.toByteArray() : tileImage;
+        stats.record(tileImage.length, storedImage.length, System.nanoTime() - start);
+
+        if (stats.shouldSampleDecode()) {
+            long decodeStart = System.nanoTime();
+            Bitmap decoded = BitmapFactory.decodeByteArray(storedImage, 0, storedImage.length);
+            stats.recordDecode(System.nanoTime() - decodeStart);
+            if (decoded != null) {
+                decoded.recycle();
+            }
+        }
+        return storedImage;
+    }
+
+    /**
+     * Encodes a tile rendered on the device, PNG being used by the {@link #original()} format
+     *
+     * @param tile tile bitmap
+     * @return encoded tile image
+     */
+    public byte[] encode(Bitmap tile) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        tile.compress(compressFormat != null ? compressFormat : Bitmap.CompressFormat.PNG,
+                compressFormat != null ? quality : 100, stream);
+        return stream.toByteArray();
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return compressFormat == null ? "ORIGINAL" : compressFormat + "@" + quality;
+    }
+
+    /**
+     * Running statistics of the tiles stored in a format
+     */
+    public static class Stats {
+
+        private final AtomicLong tileCount = new AtomicLong();
+        private final AtomicLong sourceBytes = new AtomicLong();
+        private final AtomicLong storedBytes = new AtomicLong();
+        private final AtomicLong transcodeNanos = new AtomicLong();
+        private final AtomicLong decodeCount = new AtomicLong();
+        private final AtomicLong decodeNanos = new AtomicLong();
+
+        void record(int sourceLength, int storedLength, long nanos) {
+            tileCount.incrementAndGet();
+            sourceBytes.addAndGet(sourceLength);
+            storedBytes.addAndGet(storedLength);
+            transcodeNanos.addAndGet(nanos);
+        }
+
+        boolean shouldSampleDecode() {
+            return tileCount.get() % DECODE_SAMPLING == 1;
+        }
+
+        void recordDecode(long nanos) {
+            decodeCount.incrementAndGet();
+            decodeNanos.addAndGet(nanos);
+        }
+
+        public long getTileCount() {
+            return tileCount.get();
+        }
+
+        public long getSourceBytes() {
+            return sourceBytes.get();
+        }
+
+        public long getStoredBytes() {
+            return storedBytes.get();
+        }
+
+        /**
+         * @return average size of a stored tile in bytes
+         */
+        public long getAverageStoredTileBytes() {
+            long count = tileCount.get();
+            return count == 0 ? 0 : storedBytes.get() / count;
+        }
+
+        /**
+         * @return average time spent transcoding a tile in microseconds
+         */
+        public long getAverageTranscodeMicros() {
+            long count = tileCount.get();
+            return count == 0 ? 0 : transcodeNanos.get() / count / 1000;
+        }
+
+        /**
+         * @return average time of decoding a stored tile in microseconds, measured on a sample of the tiles
+         */
+        public long getAverageDecodeMicros() {
+            long count = decodeCount.get();
+            return count == 0 ? 0 : decodeNanos.get() / count / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return "tiles: " + getTileCount() + ", source bytes: " + getSourceBytes() + ", stored bytes: " + getStoredBytes()
+                    + ", bytes per tile: " + getAverageStoredTileBytes() + ", transcode: " + getAverageTranscodeMicros()
+                    + "us, decode: " + getAverageDecodeMicros() + "us";
+        }
+    }
+}
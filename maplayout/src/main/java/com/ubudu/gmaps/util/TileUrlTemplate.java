@@ -0,0 +1,195 @@
+package com.ubudu.gmaps.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Tile url template compiled once into literal and placeholder segments.</p>
+ * <p>Supported placeholders:
+ * <ul>
+ * <li><i>{z}</i> - zoom level</li>
+ * <li><i>{x}</i> - x coordinate of the tile</li>
+ * <li><i>{y}</i> - y coordinate of the tile, TMS or XYZ depending on the template configuration</li>
+ * <li><i>{s}</i> - subdomain, rotated between the configured ones</li>
+ * <li><i>{q}</i> - quadkey of the tile</li>
+ * <li><i>{r}</i> - scale suffix of high density tiles, e.g. "@2x", see {@link #setScaleSuffix(String)}</li>
+ * </ul>
+ * Any other text in braces is kept as is.</p>
+ * <p>Urls are rendered into a per-thread reusable buffer, so the only allocation per tile is the resulting String.</p>
+ */
+public class TileUrlTemplate {
+
+    private static final int LITERAL = 0;
+    private static final int ZOOM = 1;
+    private static final int X = 2;
+    private static final int Y = 3;
+    private static final int SUBDOMAIN = 4;
+    private static final int QUADKEY = 5;
+    private static final int SCALE = 6;
+
+    private static final String[] DEFAULT_SUBDOMAINS = {"a", "b", "c"};
+
+    private final String mTemplate;
+    private final boolean mTmsY;
+    private final String[] mSubdomains;
+    private final int[] mSegmentTypes;
+    private final String[] mSegmentLiterals;
+    private volatile String mScaleSuffix = "";
+
+    private final ThreadLocal<StringBuilder> mBuilder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(mTemplate.length() + 32);
+        }
+    };
+
+    /**
+     * Compiles a template using XYZ tile rows and the "a", "b", "c" subdomains
+     * @param template url template, e.g. "https://{s}.tile.openstreetmap.org/{z}/{x}/{y}.png"
+     */
+    public TileUrlTemplate(String template) {
+        this(template, false, DEFAULT_SUBDOMAINS);
+    }
+
+    /**
+     * @param template url template
+     * @param tmsY true if {y} should be substituted with the TMS tile row (origin in the bottom left corner),
+     *             false for the XYZ tile row (origin in the top left corner)
+     * @param subdomains subdomains to be rotated for the {s} placeholder
+     */
+    public TileUrlTemplate(String template, boolean tmsY, String... subdomains) {
+        mTemplate = template;
+        mTmsY = tmsY;
+        mSubdomains = subdomains.length > 0 ? subdomains.clone() : DEFAULT_SUBDOMAINS;
+
+        List<Integer> types = new ArrayList<>();
+        List<String> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            int type = template.charAt(i) == '{' ? placeholderType(template, i) : LITERAL;
+            if (type == LITERAL) {
+                literal.append(template.charAt(i));
+                i++;
+                continue;
+            }
+            if (literal.length() > 0) {
+                types.add(LITERAL);
+                literals.add(literal.toString());
+                literal.setLength(0);
+            }
+            types.add(type);
+            literals.add(null);
+            i += 3;
+        }
+        if (literal.length() > 0) {
+            types.add(LITERAL);
+            literals.add(literal.toString());
+        }
+
+        mSegmentTypes = new int[types.size()];
+        for (int j = 0; j < mSegmentTypes.length; j++) {
+            mSegmentTypes[j] = types.get(j);
+        }
+        mSegmentLiterals = literals.toArray(new String[literals.size()]);
+    }
+
+    private static int placeholderType(String template, int start) {
+        if (start + 2 >= template.length() || template.charAt(start + 2) != '}')
+            return LITERAL;
+        switch (template.charAt(start + 1)) {
+            case 'z':
+                return ZOOM;
+            case 'x':
+                return X;
+            case 'y':
+                return Y;
+            case 's':
+                return SUBDOMAIN;
+            case 'q':
+                return QUADKEY;
+            case 'r':
+                return SCALE;
+            default:
+                return LITERAL;
+        }
+    }
+
+    /**
+     * @param x x coordinate of the tile (XYZ)
+     * @param y y coordinate of the tile (XYZ)
+     * @param z the zoom level
+     * @return url of the given tile
+     */
+    public String render(int x, int y, int z) {
+        StringBuilder builder = mBuilder.get();
+        builder.setLength(0);
+        for (int i = 0; i < mSegmentTypes.length; i++) {
+            switch (mSegmentTypes[i]) {
+                case LITERAL:
+                    builder.append(mSegmentLiterals[i]);
+                    break;
+                case ZOOM:
+                    builder.append(z);
+                    break;
+                case X:
+                    builder.append(x);
+                    break;
+                case Y:
+                    builder.append(mTmsY ? (1 << z) - y - 1 : y);
+                    break;
+                case SUBDOMAIN:
+                    // the same tile always goes to the same host so that it is cached only once
+                    builder.append(mSubdomains[((x + y) & Integer.MAX_VALUE) % mSubdomains.length]);
+                    break;
+                case QUADKEY:
+                    appendQuadkey(builder, x, y, z);
+                    break;
+                case SCALE:
+                    builder.append(mScaleSuffix);
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendQuadkey(StringBuilder builder, int x, int y, int z) {
+        for (int i = z; i > 0; i--) {
+            int mask = 1 << (i - 1);
+            int digit = 0;
+            if ((x & mask) != 0)
+                digit += 1;
+            if ((y & mask) != 0)
+                digit += 2;
+            builder.append((char) ('0' + digit));
+        }
+    }
+
+    public String getTemplate() {
+        return mTemplate;
+    }
+
+    /**
+     * @param scaleSuffix text substituted for the {r} placeholder, e.g. "@2x" for 512px tiles, empty by default
+     * @return this template
+     */
+    public TileUrlTemplate setScaleSuffix(String scaleSuffix) {
+        mScaleSuffix = scaleSuffix != null ? scaleSuffix : "";
+        return this;
+    }
+
+    public String getScaleSuffix() {
+        return mScaleSuffix;
+    }
+
+    /**
+     * @return true if the template has a {r} placeholder, i.e. the tile source serves high density tiles
+     */
+    public boolean hasScalePlaceholder() {
+        for (int type : mSegmentTypes) {
+            if (type == SCALE)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,44 @@
+package com.ubudu.gmaps.util;
+
+import android.content.Context;
+
+/**
+ * Caching tile provider downloading tiles from urls rendered with a {@link TileUrlTemplate}.
+ * Tiles outside of the optional {@link TileRange} are answered without being requested.
+ */
+public class UrlTemplateTileProvider extends CachingUrlTileProvider {
+
+    private final TileUrlTemplate mUrlTemplate;
+    private final TileRange mTileRange;
+
+    /**
+     * @param ctx context
+     * @param mTileWidth tile width
+     * @param mTileHeight tile height
+     * @param urlTemplate template of the tiles urls
+     * @param tileRange range of the tiles available from the tile source, null if not known
+     */
+    public UrlTemplateTileProvider(Context ctx, int mTileWidth, int mTileHeight, TileUrlTemplate urlTemplate, TileRange tileRange) {
+        super(ctx, mTileWidth, mTileHeight);
+        mUrlTemplate = urlTemplate;
+        mTileRange = tileRange;
+    }
+
+    @Override
+    protected boolean hasTile(int x, int y, int z) {
+        return mTileRange == null || mTileRange.contains(x, y, z);
+    }
+
+    @Override
+    public String getTileUrl(int x, int y, int z) {
+        return mUrlTemplate.render(x, y, z);
+    }
+
+    public TileUrlTemplate getUrlTemplate() {
+        return mUrlTemplate;
+    }
+
+    public TileRange getTileRange() {
+        return mTileRange;
+    }
+}
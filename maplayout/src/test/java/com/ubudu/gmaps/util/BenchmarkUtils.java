@@ -0,0 +1,23 @@
+package com.ubudu.gmaps.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Helpers shared by the benchmarks of the unit tests
+ */
+class BenchmarkUtils {
+
+    /**
+     * @return bytes allocated so far by the current thread, -1 if the JVM does not tell
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (hotSpotBean.isThreadAllocatedMemorySupported() && hotSpotBean.isThreadAllocatedMemoryEnabled())
+                return hotSpotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
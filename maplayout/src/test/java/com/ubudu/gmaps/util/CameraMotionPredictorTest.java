@@ -0,0 +1,138 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays recorded camera motions through the predictor and checks the tiles it would prefetch.
+ */
+public class CameraMotionPredictorTest {
+
+    private static final long FRAME = 16; // ms
+    private static final long LOOKAHEAD = 500; // ms
+    private static final int ZOOM = 16;
+    // visible region of a phone screen at zoom 16, about 4 x 7 tiles
+    private static final double WIDTH = 0.02;
+    private static final double HEIGHT = 0.025;
+
+    private final CameraMotionPredictor predictor = new CameraMotionPredictor();
+
+    @Test
+    public void eastwardPan_predictsTheTilesEastOfTheVisibleRegion() {
+        LatLngBounds visible = replayPan(48.85, 2.35, 0, 0.0001, 30);
+
+        assertEquals(0.0001 / FRAME, predictor.getLngVelocity(), 1e-9);
+        assertEquals(0, predictor.getLatVelocity(), 1e-12);
+        List<Long> tiles = CameraMotionPredictor.getBandTiles(visible,
+                predictor.getPredictedBounds(visible, LOOKAHEAD), ZOOM, ZOOM + 1, Integer.MAX_VALUE);
+
+        assertFalse(tiles.isEmpty());
+        TileRange visibleTiles = new TileRange(visible, 256);
+        double previousDistance = 0;
+        for (long key : tiles) {
+            int x = TileKey.x(key), y = TileKey.y(key), z = TileKey.z(key);
+            assertTrue(z == ZOOM || z == ZOOM + 1);
+            assertFalse(visibleTiles.contains(x, y, z));
+            assertTrue(x > visibleTiles.getMaxX(z) - 1);
+            double distance = distance(visible.getCenter(), x, y, z);
+            assertTrue(distance >= previousDistance - 1e-9);
+            previousDistance = distance;
+        }
+    }
+
+    @Test
+    public void bandTiles_areLimitedToTheRequestedZoomLevelsAndCount() {
+        LatLngBounds visible = replayPan(48.85, 2.35, 0.0005, 0.0005, 30);
+        List<Long> tiles = CameraMotionPredictor.getBandTiles(visible,
+                predictor.getPredictedBounds(visible, LOOKAHEAD), ZOOM, ZOOM, 10);
+        assertEquals(10, tiles.size());
+        for (long key : tiles)
+            assertEquals(ZOOM, TileKey.z(key));
+    }
+
+    @Test
+    public void pauseLongerThanMoveInterval_endsTheMotion() {
+        replayPan(48.85, 2.35, 0, 0.0001, 30);
+        assertTrue(predictor.isMoving());
+        predictor.onCameraMove(bounds(48.85, 2.36), 30 * FRAME + 1000);
+        assertFalse(predictor.isMoving());
+    }
+
+    @Test
+    public void stillCamera_isNotMoving() {
+        replayPan(48.85, 2.35, 0, 0, 30);
+        assertFalse(predictor.isMoving());
+    }
+
+    @Test
+    public void panAcrossTheAntimeridian_keepsItsVelocityAndPredictsTilesAcrossIt() {
+        // starts at 179.9 east and pans east by 0.01 degree per frame, crossing 180 after a few frames
+        replayPan(0, 179.9, 0, 0.01, 20);
+        assertEquals(0.01 / FRAME, predictor.getLngVelocity(), 1e-6);
+
+        LatLngBounds visible = bounds(0, 179.995);
+        assertTrue(visible.southwest.longitude > visible.northeast.longitude);
+        LatLngBounds predicted = predictor.getPredictedBounds(visible, LOOKAHEAD);
+        assertTrue(predicted.southwest.longitude < -179);
+        List<Long> tiles = CameraMotionPredictor.getBandTiles(visible, predicted, 12, 12, Integer.MAX_VALUE);
+
+        assertFalse(tiles.isEmpty());
+        for (long key : tiles) {
+            // all on the western edge of the world, east of the antimeridian, and none of the visible ones
+            assertTrue(TileKey.x(key) > 0 && TileKey.x(key) < 10);
+        }
+    }
+
+    @Test
+    public void splitAtAntimeridian_keepsBoundsNotCrossingIt() {
+        LatLngBounds bounds = bounds(48.85, 2.35);
+        assertEquals(1, CameraMotionPredictor.splitAtAntimeridian(bounds).size());
+
+        List<LatLngBounds> parts = CameraMotionPredictor.splitAtAntimeridian(bounds(0, 180));
+        assertEquals(2, parts.size());
+        TileRange east = new TileRange(parts.get(0), 256, 10, 10);
+        TileRange west = new TileRange(parts.get(1), 256, 10, 10);
+        assertEquals(1023, east.getMaxX(10));
+        assertEquals(0, west.getMinX(10));
+        assertTrue(east.getTileCount(10) > 0 && west.getTileCount(10) > 0);
+    }
+
+    @Test
+    public void tileRange_isEmptyOutsideItsZoomLevels() {
+        TileRange range = new TileRange(bounds(48.85, 2.35), 256, 15, 16);
+        assertEquals(0, range.getTileCount(14));
+        assertEquals(0, range.getTileCount(17));
+        assertTrue(range.getTileCount(16) > 0);
+        assertFalse(range.contains(range.getMinX(16) / 2, range.getMinY(16) / 2, 15 - 1));
+    }
+
+    /**
+     * Feeds the predictor with a camera panning at a constant speed, one sample per frame
+     *
+     * @return visible region at the last sample
+     */
+    private LatLngBounds replayPan(double lat, double lng, double latStep, double lngStep, int frames) {
+        LatLngBounds visible = null;
+        for (int i = 0; i < frames; i++) {
+            visible = bounds(lat + i * latStep, lng + i * lngStep);
+            predictor.onCameraMove(visible, i * FRAME);
+        }
+        return visible;
+    }
+
+    private static LatLngBounds bounds(double lat, double lng) {
+        return new LatLngBounds(new LatLng(lat - HEIGHT / 2, lng - WIDTH / 2), new LatLng(lat + HEIGHT / 2, lng + WIDTH / 2));
+    }
+
+    private static double distance(LatLng center, int x, int y, int z) {
+        double dx = x + 0.5 - Mercator.lngToX(center.longitude, z) / 256;
+        double dy = y + 0.5 - Mercator.latToY(center.latitude, z) / 256;
+        return dx * dx + dy * dy;
+    }
+}
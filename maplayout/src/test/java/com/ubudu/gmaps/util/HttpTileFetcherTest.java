@@ -0,0 +1,139 @@
+package com.ubudu.gmaps.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fetches from a local tile server stand-in: connection reuse, error statuses, conditional requests
+ * and the bound on concurrent connections.
+ */
+public class HttpTileFetcherTest {
+
+    private TileServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TileServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void fetch_returnsTileBody() throws Exception {
+        assertArrayEquals(TileServer.body(3, 5, 18), new HttpTileFetcher().fetch(server.url(3, 5, 18)));
+    }
+
+    @Test
+    public void sequentialFetches_reuseOneConnection() throws Exception {
+        HttpTileFetcher fetcher = new HttpTileFetcher();
+        for (int x = 0; x < 20; x++)
+            assertArrayEquals(TileServer.body(x, 0, 18), fetcher.fetch(server.url(x, 0, 18)));
+        assertEquals(20, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void notFound_isReportedWithoutException() throws Exception {
+        server.setStatus(1, 0, 18, 404);
+        HttpTileFetcher fetcher = new HttpTileFetcher();
+        assertEquals(TileResponse.Status.NOT_FOUND, fetcher.fetch(server.url(1, 0, 18), null, null).getStatus());
+        assertNull(fetcher.fetch(server.url(1, 0, 18)));
+    }
+
+    @Test
+    public void noContent_isReportedAsNotFound() throws Exception {
+        server.setStatus(1, 0, 18, 204);
+        assertEquals(TileResponse.Status.NOT_FOUND, new HttpTileFetcher().fetch(server.url(1, 0, 18), null, null).getStatus());
+    }
+
+    @Test(expected = IOException.class)
+    public void serverError_throws() throws Exception {
+        server.setStatus(1, 0, 18, 503);
+        new HttpTileFetcher().fetch(server.url(1, 0, 18));
+    }
+
+    @Test
+    public void errorResponses_keepConnectionReusable() throws Exception {
+        server.setStatus(1, 0, 18, 404);
+        server.setStatus(2, 0, 18, 500);
+        HttpTileFetcher fetcher = new HttpTileFetcher();
+        fetcher.fetch(server.url(0, 0, 18));
+        fetcher.fetch(server.url(1, 0, 18));
+        try {
+            fetcher.fetch(server.url(2, 0, 18));
+            fail("500 should throw");
+        } catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals(TileServer.body(3, 0, 18), fetcher.fetch(server.url(3, 0, 18)));
+        assertEquals(4, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void conditionalFetch_isNotModifiedForSameETag() throws Exception {
+        HttpTileFetcher fetcher = new HttpTileFetcher();
+        TileResponse response = fetcher.fetch(server.url(0, 0, 18), null, null);
+        assertEquals(TileResponse.Status.OK, response.getStatus());
+        assertNotNull(response.getETag());
+
+        TileResponse revalidation = fetcher.fetch(server.url(0, 0, 18), response.getETag(), null);
+        assertEquals(TileResponse.Status.NOT_MODIFIED, revalidation.getStatus());
+        assertNull(revalidation.getData());
+
+        TileResponse changed = fetcher.fetch(server.url(0, 0, 18), "\"outdated\"", null);
+        assertEquals(TileResponse.Status.OK, changed.getStatus());
+        assertArrayEquals(TileServer.body(0, 0, 18), changed.getData());
+    }
+
+    @Test
+    public void connections_areBoundedByMaxConnections() throws Exception {
+        server.setDelay(20);
+        fetchConcurrently(new HttpTileFetcher(2), 8, 32);
+        assertTrue(server.getMaxActiveRequestCount() <= 2);
+    }
+
+    /**
+     * Fetches distinct tiles from the given number of threads and checks their bodies
+     */
+    private void fetchConcurrently(final HttpTileFetcher fetcher, int threads, int tiles) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < tiles; i++) {
+                final int x = i;
+                results.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return fetcher.fetch(server.url(x, threadsTag(fetcher), 18));
+                    }
+                }));
+            }
+            for (int i = 0; i < tiles; i++)
+                assertArrayEquals(TileServer.body(i, threadsTag(fetcher), 18), results.get(i).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return tile row distinguishing the tiles of the given fetcher from the ones of the other runs
+     */
+    private static int threadsTag(HttpTileFetcher fetcher) {
+        return fetcher.getMaxConnections();
+    }
+}
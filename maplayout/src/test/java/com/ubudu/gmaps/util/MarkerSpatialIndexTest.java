@@ -0,0 +1,123 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.SphericalUtil;
+import com.ubudu.gmaps.model.Marker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the circle lookups of the marker spatial index, near the edges of the circle bounding box
+ * in particular, against the distance to every marker.
+ */
+public class MarkerSpatialIndexTest {
+
+    private final MarkerSpatialIndex index = new MarkerSpatialIndex();
+
+    @Test
+    public void findWithin_findsMarkersBeyondTheEastAndWestPointsOfTheCircle() {
+        LatLng center = new LatLng(60, 10);
+        double meters = 100000;
+        // furthest point east of the circle, north of the point due east of the center
+        LatLng east = getFurthestEast(center, meters * 0.99999);
+        LatLng west = new LatLng(east.latitude, 2 * center.longitude - east.longitude);
+        assertTrue(east.longitude > SphericalUtil.computeOffset(center, meters, 90).longitude);
+        assertTrue(west.longitude < SphericalUtil.computeOffset(center, meters, 270).longitude);
+
+        Marker eastMarker = add(east);
+        Marker westMarker = add(west);
+        List<Marker> found = index.findWithin(center, meters);
+        assertTrue(found.contains(eastMarker));
+        assertTrue(found.contains(westMarker));
+    }
+
+    @Test
+    public void boundingBox_containsTheWholeCircle() {
+        for (double latitude : new double[]{0, 45, -60, 80, 89}) {
+            LatLng center = new LatLng(latitude, 100);
+            LatLngBounds bounds = MarkerSpatialIndex.getBoundingBox(center, 50000);
+            assertNotNull(bounds);
+            for (int heading = 0; heading < 360; heading++) {
+                LatLng point = SphericalUtil.computeOffset(center, 49999, heading);
+                assertTrue(latitude + " " + heading, bounds.contains(point));
+            }
+        }
+    }
+
+    @Test
+    public void boundingBox_isTightAtTheEastEdge() {
+        LatLng center = new LatLng(60, 10);
+        LatLngBounds bounds = MarkerSpatialIndex.getBoundingBox(center, 100000);
+        LatLng east = getFurthestEast(center, 100000);
+        assertEquals(east.longitude, bounds.northeast.longitude, 1e-3);
+    }
+
+    @Test
+    public void circleAroundAPole_spansAllTheLongitudes() {
+        LatLng center = new LatLng(89.5, 0);
+        assertNull(MarkerSpatialIndex.getBoundingBox(center, 100000));
+        Marker opposite = add(new LatLng(89.5, 180 - 1e-6));
+        Marker far = add(new LatLng(80, 0));
+        List<Marker> found = index.findWithin(center, 200000);
+        assertTrue(found.contains(opposite));
+        assertFalse(found.contains(far));
+    }
+
+    @Test
+    public void circleAcrossTheAntimeridian_findsMarkersOnBothSides() {
+        LatLng center = new LatLng(-17, 179.99);
+        Marker east = add(new LatLng(-17, -179.99));
+        Marker west = add(new LatLng(-17, 179.98));
+        Marker far = add(new LatLng(-17, 179.5));
+        List<Marker> found = index.findWithin(center, 5000);
+        assertTrue(found.contains(east));
+        assertTrue(found.contains(west));
+        assertFalse(found.contains(far));
+    }
+
+    @Test
+    public void findWithin_matchesTheDistanceToEveryMarker() {
+        Random random = new Random(19);
+        LatLng center = new LatLng(65, 25);
+        double meters = 300;
+        List<Marker> markers = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // around the circle edge, within about twice the radius
+            LatLng location = SphericalUtil.computeOffset(center, random.nextDouble() * 2 * meters, random.nextDouble() * 360);
+            markers.add(add(location));
+        }
+        HashSet<Marker> expected = new HashSet<>();
+        for (Marker marker : markers) {
+            if (SphericalUtil.computeDistanceBetween(center, marker.getLocation()) <= meters)
+                expected.add(marker);
+        }
+        assertEquals(expected, new HashSet<>(index.findWithin(center, meters)));
+    }
+
+    private Marker add(LatLng location) {
+        Marker marker = new Marker("marker " + index.size(), location);
+        index.add(marker);
+        return marker;
+    }
+
+    /**
+     * @return point of the circle with the largest longitude
+     */
+    private static LatLng getFurthestEast(LatLng center, double meters) {
+        LatLng east = null;
+        for (double heading = 0; heading <= 180; heading += 0.01) {
+            LatLng point = SphericalUtil.computeOffset(center, meters, heading);
+            if (east == null || point.longitude > east.longitude)
+                east = point;
+        }
+        return east;
+    }
+}
@@ -0,0 +1,154 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.ubudu.gmaps.model.Marker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the lookups of the marker tag index, its synchronization with the tags of the markers,
+ * and compares its lookups with checking the tags of every marker.
+ */
+public class MarkerTagIndexTest {
+
+    private static final int MARKER_COUNT = 10000;
+
+    private final MarkerTagIndex index = new MarkerTagIndex();
+
+    @Test
+    public void find_returnsTheMarkersHavingAllTheTags() {
+        Marker shop = marker("shop", "poi", "shop", "floor-0");
+        Marker cafe = marker("cafe", "poi", "food", "floor-0");
+        Marker restaurant = marker("restaurant", "poi", "food", "floor-1");
+        Marker exit = marker("exit", "floor-0");
+
+        assertEquals(set(shop, cafe, restaurant), index.find(Arrays.asList("poi")));
+        assertEquals(set(cafe, restaurant), index.find(Arrays.asList("poi", "food")));
+        assertEquals(set(cafe), index.find(Arrays.asList("food", "floor-0", "poi")));
+        assertEquals(set(shop, cafe, exit), index.find(Arrays.asList("floor-0")));
+        assertEquals(set(), index.find(Arrays.asList("shop", "food")));
+        assertEquals(set(), index.find(Arrays.asList("poi", "unknown")));
+    }
+
+    @Test
+    public void find_returnsANewSet() {
+        Marker shop = marker("shop", "poi");
+        index.find(Arrays.asList("poi")).clear();
+        assertEquals(set(shop), index.find(Arrays.asList("poi")));
+    }
+
+    @Test
+    public void remove_forgetsAllTheTagsOfTheMarker() {
+        Marker shop = marker("shop", "poi", "shop");
+        Marker cafe = marker("cafe", "poi");
+        index.remove(shop);
+        assertEquals(set(cafe), index.find(Arrays.asList("poi")));
+        assertEquals(0, index.getMarkerCount("shop"));
+    }
+
+    @Test
+    public void tagChanges_areReportedToTheIndexByTheChangeListener() {
+        Marker shop = marker("shop", "poi");
+        Marker cafe = marker("cafe", "poi");
+
+        shop.addTag("sale");
+        assertEquals(set(shop), index.find(Arrays.asList("poi", "sale")));
+
+        shop.removeTag("poi");
+        assertEquals(set(cafe), index.find(Arrays.asList("poi")));
+        assertEquals(set(), index.find(Arrays.asList("poi", "sale")));
+
+        cafe.setTags(Arrays.asList("food", "sale"));
+        assertEquals(0, index.getMarkerCount("poi"));
+        assertEquals(set(shop, cafe), index.find(Arrays.asList("sale")));
+        assertEquals(set(cafe), index.find(Arrays.asList("food")));
+    }
+
+    @Test
+    public void tagAddedTwice_isKeptUntilRemovedTwice() {
+        Marker shop = marker("shop", "poi");
+        shop.addTag("poi");
+        shop.removeTag("poi");
+        assertEquals(set(shop), index.find(Arrays.asList("poi")));
+        shop.removeTag("poi");
+        assertEquals(set(), index.find(Arrays.asList("poi")));
+    }
+
+    @Test
+    public void tagChangesWithoutListener_areNotReported() {
+        Marker shop = marker("shop", "poi");
+        shop.setChangeListener(null);
+        index.remove(shop);
+        shop.addTag("sale");
+        assertEquals(0, index.getMarkerCount("sale"));
+    }
+
+    @Test
+    public void find_matchesCheckingEveryMarker() {
+        List<Marker> markers = new ArrayList<>(MARKER_COUNT);
+        for (int i = 0; i < MARKER_COUNT; i++) {
+            // every marker is a poi, on one of 10 floors, in one of 1000 categories
+            Marker marker = new Marker("marker " + i, new LatLng(0, 0));
+            marker.setTags(Arrays.asList("poi", "floor-" + i % 10, "category-" + i % 1000));
+            markers.add(marker);
+            index.add(marker);
+        }
+        List<String> tags = Arrays.asList("poi", "floor-3", "category-3");
+        Set<Marker> found = index.find(tags);
+        assertEquals(scan(markers, tags), found);
+        assertEquals(MARKER_COUNT / 1000, found.size());
+        assertEquals(scan(markers, Arrays.asList("floor-3")), index.find(Arrays.asList("floor-3")));
+    }
+
+    /**
+     * @return markers having all the tags, found by checking the tags of every marker
+     */
+    private static Set<Marker> scan(List<Marker> markers, List<String> tags) {
+        Set<Marker> result = new HashSet<>();
+        for (Marker marker : markers) {
+            if (marker.getTags().containsAll(tags))
+                result.add(marker);
+        }
+        return result;
+    }
+
+    /**
+     * @return new marker indexed and kept in sync with the index, the same way as the map layout does
+     */
+    private Marker marker(String title, String... tags) {
+        Marker marker = new Marker(title, new LatLng(0, 0));
+        marker.setTags(Arrays.asList(tags));
+        index.add(marker);
+        marker.setChangeListener(new Marker.ChangeListener() {
+            @Override
+            public void onTagAdded(Marker marker, String tag) {
+                index.addTag(marker, tag);
+            }
+
+            @Override
+            public void onTagRemoved(Marker marker, String tag) {
+                index.removeTag(marker, tag);
+            }
+
+            @Override
+            public void onTitleChanged(Marker marker, String oldTitle) {
+            }
+        });
+        return marker;
+    }
+
+    private static Set<Marker> set(Marker... markers) {
+        Set<Marker> set = new HashSet<>();
+        Collections.addAll(set, markers);
+        return set;
+    }
+}
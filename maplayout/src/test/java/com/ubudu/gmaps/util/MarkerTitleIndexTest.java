@@ -0,0 +1,126 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.ubudu.gmaps.model.Marker;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the prefix and exact title lookups of the marker title index, and its synchronization with
+ * the titles of the markers.
+ */
+public class MarkerTitleIndexTest {
+
+    private final MarkerTitleIndex index = new MarkerTitleIndex();
+
+    @Test
+    public void findByPrefix_returnsTheMatchingMarkersSortedByTitle() {
+        Marker cafe = marker("cafe");
+        Marker cafeteria = marker("cafeteria");
+        Marker car = marker("car park");
+        marker("bakery");
+        marker("Cafe");
+
+        assertEquals(Arrays.asList(cafe, cafeteria, car), index.findByPrefix("ca"));
+        assertEquals(Arrays.asList(cafe, cafeteria), index.findByPrefix("cafe"));
+        assertEquals(Collections.singletonList(cafeteria), index.findByPrefix("cafet"));
+        assertEquals(Collections.<Marker>emptyList(), index.findByPrefix("cafez"));
+        assertEquals(Collections.<Marker>emptyList(), index.findByPrefix("d"));
+    }
+
+    @Test
+    public void findByPrefix_returnsMarkersSharingATitle() {
+        Marker first = marker("exit");
+        Marker second = marker("exit", new LatLng(1, 1));
+        List<Marker> found = index.findByPrefix("ex");
+        assertEquals(2, found.size());
+        assertTrue(found.containsAll(Arrays.asList(first, second)));
+    }
+
+    @Test
+    public void emptyPrefix_returnsAllTheMarkers() {
+        Marker cafe = marker("cafe");
+        Marker bakery = marker("bakery");
+        Marker last = marker(Character.MAX_VALUE + "" + Character.MAX_VALUE);
+        assertEquals(Arrays.asList(bakery, cafe, last), index.findByPrefix(""));
+    }
+
+    @Test
+    public void titlesWithTheHighestChar_areFoundByPrefix() {
+        Marker highest = marker("ab" + Character.MAX_VALUE);
+        Marker afterHighest = marker("ab" + Character.MAX_VALUE + "c");
+        Marker twoHighest = marker("ab" + Character.MAX_VALUE + Character.MAX_VALUE);
+        Marker next = marker("ac");
+
+        assertEquals(Arrays.asList(highest, afterHighest, twoHighest), index.findByPrefix("ab"));
+        assertEquals(Arrays.asList(highest, afterHighest, twoHighest), index.findByPrefix("ab" + Character.MAX_VALUE));
+        assertEquals(Collections.singletonList(twoHighest), index.findByPrefix("ab" + Character.MAX_VALUE + Character.MAX_VALUE));
+        assertEquals(Collections.singletonList(next), index.findByPrefix("ac"));
+    }
+
+    @Test
+    public void setTitle_reindexesTheMarker() {
+        Marker marker = marker("cafe");
+        Marker other = marker("cafeteria");
+
+        marker.setTitle("bakery");
+        assertEquals(Collections.singletonList(other), index.findByPrefix("cafe"));
+        assertEquals(Collections.singletonList(marker), index.findByPrefix("bak"));
+        assertEquals(Collections.<Marker>emptyList(), index.find("cafe"));
+        assertEquals(Collections.singletonList(marker), index.find("bakery"));
+
+        marker.setTitle("cafe");
+        assertEquals(Arrays.asList(marker, other), index.findByPrefix("cafe"));
+        assertEquals(Collections.<Marker>emptyList(), index.findByPrefix("bak"));
+    }
+
+    @Test
+    public void remove_forgetsTheMarker() {
+        Marker cafe = marker("cafe");
+        Marker cafeteria = marker("cafeteria");
+        index.remove(cafe);
+        assertEquals(Collections.singletonList(cafeteria), index.findByPrefix("cafe"));
+        assertEquals(Collections.<Marker>emptyList(), index.find("cafe"));
+    }
+
+    @Test
+    public void find_returnsTheMarkersHavingExactlyTheTitle() {
+        Marker cafe = marker("cafe");
+        marker("cafeteria");
+        assertEquals(Collections.singletonList(cafe), index.find("cafe"));
+        assertEquals(Collections.<Marker>emptyList(), index.find("caf"));
+    }
+
+    private Marker marker(String title) {
+        return marker(title, new LatLng(0, 0));
+    }
+
+    /**
+     * @return new marker indexed and kept in sync with the index, the same way as the map layout does
+     */
+    private Marker marker(String title, LatLng location) {
+        Marker marker = new Marker(title, location);
+        index.add(marker);
+        marker.setChangeListener(new Marker.ChangeListener() {
+            @Override
+            public void onTagAdded(Marker marker, String tag) {
+            }
+
+            @Override
+            public void onTagRemoved(Marker marker, String tag) {
+            }
+
+            @Override
+            public void onTitleChanged(Marker marker, String oldTitle) {
+                index.updateTitle(marker, oldTitle);
+            }
+        });
+        return marker;
+    }
+}
@@ -0,0 +1,111 @@
+package com.ubudu.gmaps.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * <p>Compares serving tiles cached on disk as their raw encoded bytes with the former decode and re-encode
+ * round trip. The Android bitmap codecs are not available on the host, so ImageIO stands in for
+ * BitmapFactory.decodeByteArray and Bitmap.compress(PNG, 100).</p>
+ * <p>Not a unit test, as its timings depend on the machine and its load: run its main method to get
+ * them. The bytes served by the tile provider are checked by the instrumented CachingUrlTileProviderTest.</p>
+ */
+public class RawTileBytesBenchmark {
+
+    private static final int TILE_COUNT = 32;
+    private static final int WARMUP_ROUNDS = 5;
+
+    private final TileDiskCache diskCache;
+
+    private RawTileBytesBenchmark(File directory) throws IOException {
+        diskCache = new TileDiskCache(directory, TileDiskCache.DEFAULT_MAX_SIZE);
+        Random random = new Random(42);
+        for (int i = 0; i < TILE_COUNT; i++)
+            diskCache.put(url(i), createTile(random));
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory("tiles").toFile();
+        RawTileBytesBenchmark benchmark = new RawTileBytesBenchmark(directory);
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.diskCache.clear();
+            directory.delete();
+        }
+    }
+
+    private void run() throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            serveRaw();
+            serveRoundTrip();
+        }
+
+        long allocated = BenchmarkUtils.allocatedBytes();
+        long start = System.nanoTime();
+        long rawBytes = serveRaw();
+        long rawNanos = System.nanoTime() - start;
+        long rawAllocated = BenchmarkUtils.allocatedBytes() - allocated;
+
+        allocated = BenchmarkUtils.allocatedBytes();
+        start = System.nanoTime();
+        long roundTripBytes = serveRoundTrip();
+        long roundTripNanos = System.nanoTime() - start;
+        long roundTripAllocated = BenchmarkUtils.allocatedBytes() - allocated;
+
+        System.out.println(String.format("raw bytes:  %.0f tiles/s, %d bytes allocated/tile, %d bytes/tile served",
+                TILE_COUNT * 1e9 / rawNanos, rawAllocated / TILE_COUNT, rawBytes / TILE_COUNT));
+        System.out.println(String.format("round trip: %.0f tiles/s, %d bytes allocated/tile, %d bytes/tile served",
+                TILE_COUNT * 1e9 / roundTripNanos, roundTripAllocated / TILE_COUNT, roundTripBytes / TILE_COUNT));
+    }
+
+    private long serveRaw() {
+        long servedBytes = 0;
+        for (int i = 0; i < TILE_COUNT; i++)
+            servedBytes += diskCache.get(url(i)).getData().length;
+        return servedBytes;
+    }
+
+    private long serveRoundTrip() throws IOException {
+        long servedBytes = 0;
+        for (int i = 0; i < TILE_COUNT; i++) {
+            byte[] data = diskCache.get(url(i)).getData();
+            BufferedImage bitmap = ImageIO.read(new ByteArrayInputStream(data));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ImageIO.write(bitmap, "png", output);
+            servedBytes += output.toByteArray().length;
+        }
+        return servedBytes;
+    }
+
+    private static String url(int i) {
+        return "https://tiles.example.com/18/" + i + "/0.png";
+    }
+
+    /**
+     * @return PNG tile with flat areas and some lines, roughly like an indoor map tile
+     */
+    private static byte[] createTile(Random random) throws IOException {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(0xF2EFE9));
+        graphics.fillRect(0, 0, 256, 256);
+        for (int i = 0; i < 40; i++) {
+            graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+            graphics.drawLine(random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256));
+        }
+        graphics.dispose();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        return output.toByteArray();
+    }
+}
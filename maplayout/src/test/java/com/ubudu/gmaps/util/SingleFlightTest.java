@@ -0,0 +1,142 @@
+package com.ubudu.gmaps.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Concurrent loads of the same tile from a local tile server stand-in.
+ */
+public class SingleFlightTest {
+
+    private static final int THREADS = 16;
+
+    private TileServer server;
+    private HttpTileFetcher fetcher;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TileServer();
+        // slow responses, so that all the callers ask while the first fetch is in flight
+        server.setDelay(200);
+        fetcher = new HttpTileFetcher(THREADS);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        server.stop();
+    }
+
+    @Test
+    public void concurrentLoadsOfSameTile_fetchOnce() throws Exception {
+        SingleFlight<Long, byte[]> singleFlight = new SingleFlight<>();
+        List<Future<byte[]>> results = loadConcurrently(singleFlight, 1);
+
+        for (Future<byte[]> result : results)
+            assertArrayEquals(TileServer.body(0, 0, 18), result.get());
+        assertEquals(1, server.getRequestCount(0, 0, 18));
+        assertEquals(THREADS - 1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void concurrentLoadsOfDistinctTiles_fetchOncePerTile() throws Exception {
+        SingleFlight<Long, byte[]> singleFlight = new SingleFlight<>();
+        List<Future<byte[]>> results = loadConcurrently(singleFlight, 4);
+
+        for (int i = 0; i < results.size(); i++)
+            assertArrayEquals(TileServer.body(i % 4, 0, 18), results.get(i).get());
+        for (int x = 0; x < 4; x++)
+            assertEquals(1, server.getRequestCount(x, 0, 18));
+        assertEquals(THREADS - 4, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void withoutSingleFlight_everyLoadFetches() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<byte[]>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    start.await();
+                    return fetcher.fetch(server.url(0, 0, 18));
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<byte[]> result : results)
+            result.get();
+        assertEquals(THREADS, server.getRequestCount(0, 0, 18));
+    }
+
+    @Test
+    public void failedLoad_isSharedAndNotKept() throws Exception {
+        server.setStatus(0, 0, 18, 500);
+        SingleFlight<Long, byte[]> singleFlight = new SingleFlight<>();
+        List<Future<byte[]>> results = loadConcurrently(singleFlight, 1);
+
+        for (Future<byte[]> result : results) {
+            try {
+                result.get();
+                fail("the failure should reach every caller");
+            } catch (ExecutionException e) {
+                // the loader failure, wrapped by the single flight and by the executor
+                assertTrue(e.getCause() instanceof ExecutionException);
+            }
+        }
+        assertEquals(1, server.getRequestCount(0, 0, 18));
+
+        // the failure is not remembered, the next load fetches again
+        server.setDelay(0);
+        server.clearStatus(0, 0, 18);
+        assertArrayEquals(TileServer.body(0, 0, 18), load(singleFlight, 0));
+        assertEquals(2, server.getRequestCount(0, 0, 18));
+    }
+
+    /**
+     * Starts {@link #THREADS} loads at once, of the given number of distinct tiles in turn
+     */
+    private List<Future<byte[]>> loadConcurrently(final SingleFlight<Long, byte[]> singleFlight, int tiles) throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<byte[]>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int x = i % tiles;
+            results.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    ready.countDown();
+                    start.await();
+                    return load(singleFlight, x);
+                }
+            }));
+        }
+        ready.await();
+        start.countDown();
+        return results;
+    }
+
+    private byte[] load(SingleFlight<Long, byte[]> singleFlight, final int x) throws ExecutionException, InterruptedException {
+        return singleFlight.execute(TileKey.of(x, 0, 18), new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return fetcher.fetch(server.url(x, 0, 18));
+            }
+        });
+    }
+}
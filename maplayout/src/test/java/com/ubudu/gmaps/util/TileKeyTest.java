@@ -0,0 +1,92 @@
+package com.ubudu.gmaps.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the packing of tile coordinates and compares the allocations of packed keys and "z/x/y" string keys
+ * for cache lookups.
+ */
+public class TileKeyTest {
+
+    private static final int TILES = 64; // tiles on each side of the looked up square
+
+    @Test
+    public void of_roundTripsCoordinates() {
+        int[][] tiles = {{0, 0, 0}, {1, 2, 3}, {132789, 90142, 18}, {(1 << 29) - 1, (1 << 29) - 1, 29}};
+        for (int[] tile : tiles) {
+            long key = TileKey.of(tile[0], tile[1], tile[2]);
+            assertEquals(tile[0], TileKey.x(key));
+            assertEquals(tile[1], TileKey.y(key));
+            assertEquals(tile[2], TileKey.z(key));
+        }
+        assertEquals("18/132789/90142", TileKey.toString(TileKey.of(132789, 90142, 18)));
+    }
+
+    @Test
+    public void of_givesDistinctKeys() {
+        assertNotEquals(TileKey.of(1, 2, 3), TileKey.of(2, 1, 3));
+        assertNotEquals(TileKey.of(1, 2, 3), TileKey.of(1, 2, 4));
+        assertNotEquals(TileKey.of(0, 1, 0), TileKey.of(1, 0, 0));
+    }
+
+    @Test
+    public void packedKeys_allocateLessThanStringKeys() {
+        Map<Long, Integer> packedKeys = new HashMap<>();
+        Map<String, Integer> stringKeys = new HashMap<>();
+        for (int x = 0; x < TILES; x++) {
+            for (int y = 0; y < TILES; y++) {
+                packedKeys.put(TileKey.of(132000 + x, 90000 + y, 18), x);
+                stringKeys.put(18 + "/" + (132000 + x) + "/" + (90000 + y), x);
+            }
+        }
+        // allocations are only measured on HotSpot
+        Assume.assumeTrue(BenchmarkUtils.allocatedBytes() >= 0);
+        // warm up both paths
+        lookUpPacked(packedKeys, 20);
+        lookUpStrings(stringKeys, 20);
+
+        // least of a few runs, so that the allocations of a compilation or an escape analysis
+        // not yet applied are left out
+        long packedAllocated = Long.MAX_VALUE;
+        long stringAllocated = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long allocated = BenchmarkUtils.allocatedBytes();
+            long packedSum = lookUpPacked(packedKeys, 1);
+            packedAllocated = Math.min(packedAllocated, BenchmarkUtils.allocatedBytes() - allocated);
+            allocated = BenchmarkUtils.allocatedBytes();
+            long stringSum = lookUpStrings(stringKeys, 1);
+            stringAllocated = Math.min(stringAllocated, BenchmarkUtils.allocatedBytes() - allocated);
+            assertEquals(packedSum, stringSum);
+        }
+        // the string keys are built for each lookup
+        assertTrue(packedAllocated < stringAllocated);
+    }
+
+    private static long lookUpPacked(Map<Long, Integer> map, int rounds) {
+        long sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int x = 0; x < TILES; x++) {
+                for (int y = 0; y < TILES; y++)
+                    sum += map.get(TileKey.of(132000 + x, 90000 + y, 18));
+            }
+        }
+        return sum;
+    }
+
+    private static long lookUpStrings(Map<String, Integer> map, int rounds) {
+        long sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int x = 0; x < TILES; x++) {
+                for (int y = 0; y < TILES; y++)
+                    sum += map.get(18 + "/" + (132000 + x) + "/" + (90000 + y));
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,69 @@
+package com.ubudu.gmaps.util;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the histograms and the listener of the tile metrics.
+ */
+public class TileMetricsTest {
+
+    private final TileMetrics metrics = new TileMetrics();
+
+    @Test
+    public void histogram_countsTimingsOfItsZoomLevelOnly() {
+        metrics.record(TileMetrics.Stage.NETWORK, 15, 40000000L);
+        metrics.record(TileMetrics.Stage.NETWORK, 16, 1000L);
+        TileMetrics.Histogram histogram = metrics.getHistogram(TileMetrics.Stage.NETWORK, 15);
+        assertEquals(1, histogram.getCount());
+        assertEquals(40000, histogram.getMeanMicros());
+        assertEquals(2, metrics.getHistogram(TileMetrics.Stage.NETWORK).getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogram_rejectsNegativeZoom() {
+        metrics.getHistogram(TileMetrics.Stage.TOTAL, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogram_rejectsZoomBeyondMaxZoom() {
+        metrics.getHistogram(TileMetrics.Stage.TOTAL, TileMetrics.ZOOM_LEVELS);
+    }
+
+    @Test
+    public void listener_receivesCountersAsWellAsTimings() {
+        final Map<TileMetrics.Counter, Long> counters = new EnumMap<>(TileMetrics.Counter.class);
+        final long[] timings = new long[1];
+        metrics.setListener(new TileMetrics.Listener() {
+            @Override
+            public void onStageTimed(TileMetrics.Stage stage, int zoom, long nanos) {
+                timings[0]++;
+            }
+
+            @Override
+            public void onCounted(TileMetrics.Counter counter, long delta) {
+                Long count = counters.get(counter);
+                counters.put(counter, (count != null ? count : 0) + delta);
+            }
+        });
+        metrics.onRequest();
+        metrics.onRequest();
+        metrics.onMemoryHit();
+        metrics.onNetworkFetch(1200);
+        metrics.onTileServed(1200);
+        metrics.record(TileMetrics.Stage.DISK_CACHE, 12, 5000L);
+
+        assertEquals(Long.valueOf(2), counters.get(TileMetrics.Counter.REQUEST));
+        assertEquals(Long.valueOf(1), counters.get(TileMetrics.Counter.MEMORY_HIT));
+        assertEquals(Long.valueOf(1), counters.get(TileMetrics.Counter.NETWORK_FETCH));
+        assertEquals(Long.valueOf(1200), counters.get(TileMetrics.Counter.BYTES_DOWNLOADED));
+        assertEquals(Long.valueOf(1200), counters.get(TileMetrics.Counter.BYTES_SERVED));
+        assertNull(counters.get(TileMetrics.Counter.DISK_HIT));
+        assertEquals(1, timings[0]);
+        assertEquals(metrics.getBytesDownloaded(), (long) counters.get(TileMetrics.Counter.BYTES_DOWNLOADED));
+    }
+}
@@ -0,0 +1,57 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the precomputed tile ranges against the former per-tile bounds intersection.
+ */
+public class TileRangeTest {
+
+    private static final LatLngBounds VENUE_BOUNDS = new LatLngBounds(new LatLng(48.8500, 2.3400), new LatLng(48.8530, 2.3450));
+    private static final int MIN_ZOOM = 10;
+    private static final int MAX_ZOOM = 21;
+    private static final int RADIUS = 40; // tiles checked around the venue on each side
+
+    @Test
+    public void contains_matchesPerTileIntersection() {
+        TileRange tileRange = new TileRange(VENUE_BOUNDS, 256);
+        int hits = 0;
+        for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+            int centerX = (int) (Mercator.lngToX(2.3425, zoom) / 256);
+            int centerY = (int) (Mercator.latToY(48.8515, zoom) / 256);
+            for (int x = centerX - RADIUS; x <= centerX + RADIUS; x++) {
+                for (int y = centerY - RADIUS; y <= centerY + RADIUS; y++) {
+                    boolean intersects = intersectsPerTile(x, y, zoom);
+                    assertEquals(zoom + "/" + x + "/" + y, intersects, tileRange.contains(x, y, zoom));
+                    if (intersects)
+                        hits++;
+                }
+            }
+        }
+        // the venue is within the checked tiles at every zoom level
+        assertTrue(hits >= MAX_ZOOM - MIN_ZOOM + 1);
+    }
+
+    @Test
+    public void contains_rejectsInvalidZoomLevels() {
+        TileRange tileRange = new TileRange(VENUE_BOUNDS, 256);
+        assertFalse(tileRange.contains(0, 0, -1));
+        assertFalse(tileRange.contains(0, 0, TileRange.MAX_ZOOM + 1));
+    }
+
+    /**
+     * Bounds check formerly done for every tile by the url tile provider of the map layout
+     */
+    private static boolean intersectsPerTile(int x, int y, int zoom) {
+        LatLng southWest = Mercator.fromPixelTo2DCoordinates(x * 256, (y + 1) * 256, zoom);
+        LatLng northEast = Mercator.fromPixelTo2DCoordinates((x + 1) * 256, y * 256, zoom);
+        LatLngBounds tileBounds = new LatLngBounds(new LatLng(southWest.latitude, southWest.longitude),
+                new LatLng(northEast.latitude, northEast.longitude));
+        return MathUtils.intersects(tileBounds, VENUE_BOUNDS);
+    }
+}
@@ -0,0 +1,126 @@
+package com.ubudu.gmaps.util;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the order in which a scheduler running one fetch at a time starts the pending fetches,
+ * and which renderer fetches it cancels.
+ */
+public class TileSchedulerTest {
+
+    private final TileScheduler scheduler = new TileScheduler(1);
+    private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void backgroundFetch_startsAfterRendererFetch() throws Exception {
+        assertEquals(Arrays.asList("renderer", "prefetch"), runPending(false, false));
+    }
+
+    @Test
+    public void promotedBackgroundFetch_startsWithRendererFetches() throws Exception {
+        assertEquals(Arrays.asList("prefetch", "renderer"), runPending(true, false));
+    }
+
+    @Test
+    public void promotionBeforeQueuing_appliesToTheComingFetch() throws Exception {
+        assertEquals(Arrays.asList("prefetch", "renderer"), runPending(false, true));
+    }
+
+    @Test
+    public void demotedTile_isQueuedAsBackgroundAgain() throws Exception {
+        scheduler.promote(1, 1, 10);
+        scheduler.demote(1, 1, 10);
+        assertEquals(Arrays.asList("renderer", "prefetch"), runPending(false, false));
+    }
+
+    @Test
+    public void viewportAcrossTheAntimeridian_keepsTheTilesOnBothSides() throws Exception {
+        scheduler.setViewport(new LatLngBounds(new LatLng(-1, 179), new LatLng(1, -179)), new LatLng(0, 180), 10);
+        // the 1024 tiles of zoom 10 are about 0.35 degrees wide
+        assertTrue(acquireAndRelease(1023, 511, 10));
+        assertTrue(acquireAndRelease(0, 511, 10));
+        assertTrue(acquireAndRelease(1020, 512, 10));
+        assertTrue(acquireAndRelease(3, 512, 10));
+        assertFalse(acquireAndRelease(512, 511, 10));
+        assertFalse(acquireAndRelease(1015, 511, 10));
+        assertFalse(acquireAndRelease(8, 511, 10));
+        assertFalse(acquireAndRelease(0, 400, 10));
+        assertEquals(4, scheduler.getCancelledCount());
+    }
+
+    @Test
+    public void viewportWithinOneWorld_cancelsTheTilesAcrossTheAntimeridian() throws Exception {
+        scheduler.setViewport(new LatLngBounds(new LatLng(-1, 178), new LatLng(1, 179.5)), new LatLng(0, 178.75), 10);
+        assertTrue(acquireAndRelease(1020, 511, 10));
+        assertFalse(acquireAndRelease(3, 511, 10));
+        assertFalse(acquireAndRelease(1010, 511, 10));
+    }
+
+    private boolean acquireAndRelease(int x, int y, int z) throws InterruptedException {
+        if (!scheduler.acquire(x, y, z, false)) {
+            return false;
+        }
+        scheduler.release();
+        return true;
+    }
+
+    /**
+     * Queues a prefetch of tile (1, 1, 10) and then a renderer fetch of tile (2, 2, 10) while the only
+     * running slot is taken, and frees the slot.
+     *
+     * @return names of the fetches in the order they started
+     */
+    private List<String> runPending(boolean promoteQueued, boolean promoteFirst) throws Exception {
+        assertTrue(scheduler.acquire(0, 0, 10, false));
+        if (promoteFirst) {
+            scheduler.promote(1, 1, 10);
+        }
+        Thread prefetch = startFetch("prefetch", 1, 1, 10, true);
+        awaitPending(1);
+        Thread renderer = startFetch("renderer", 2, 2, 10, false);
+        awaitPending(2);
+        if (promoteQueued) {
+            scheduler.promote(1, 1, 10);
+        }
+        scheduler.release();
+        prefetch.join(5000);
+        renderer.join(5000);
+        return new ArrayList<>(started);
+    }
+
+    private Thread startFetch(final String name, final int x, final int y, final int z, final boolean background) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (scheduler.acquire(x, y, z, background)) {
+                        started.add(name);
+                        scheduler.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitPending(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getPendingCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, scheduler.getPendingCount());
+    }
+}
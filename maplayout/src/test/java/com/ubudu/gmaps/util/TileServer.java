@@ -0,0 +1,165 @@
+package com.ubudu.gmaps.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Local HTTP stand-in for a tile server, serving "/{z}/{x}/{y}.png" with a body naming the tile
+ * and an ETag, and answering conditional requests matching the ETag with 304.</p>
+ * <p>Counts the requests of every path, the client connections and the requests served at once, and can
+ * answer given paths with an error status or delay all the responses.</p>
+ */
+class TileServer {
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final ConcurrentHashMap<String, AtomicInteger> mRequestCounts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> mStatuses = new ConcurrentHashMap<>();
+    private final Set<InetSocketAddress> mClients = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mActiveRequestCount = new AtomicInteger();
+    private final AtomicInteger mMaxActiveRequestCount = new AtomicInteger();
+    private volatile long mDelay;
+
+    TileServer() throws IOException {
+        // responses are written as headers then body, which Nagle's algorithm would hold back on delayed acks
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        mRequestCount.incrementAndGet();
+        mClients.add(exchange.getRemoteAddress());
+        AtomicInteger count = mRequestCounts.putIfAbsent(path, new AtomicInteger(1));
+        if (count != null)
+            count.incrementAndGet();
+        InputStream requestBody = exchange.getRequestBody();
+        while (requestBody.read() != -1) {
+            // drain the request
+        }
+        // counted until the response starts, as the client may send its next request right after
+        int active = mActiveRequestCount.incrementAndGet();
+        try {
+            int maxActive;
+            do {
+                maxActive = mMaxActiveRequestCount.get();
+            } while (active > maxActive && !mMaxActiveRequestCount.compareAndSet(maxActive, active));
+            if (mDelay > 0)
+                Thread.sleep(mDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mActiveRequestCount.decrementAndGet();
+        }
+        Integer status = mStatuses.get(path);
+        if (status == null) {
+            String eTag = eTag(path);
+            exchange.getResponseHeaders().set("ETag", eTag);
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+        byte[] body = (status == null ? "tile " + path : "error " + status).getBytes("UTF-8");
+        if (status != null && status == 204) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(status == null ? 200 : status, body.length);
+        OutputStream responseBody = exchange.getResponseBody();
+        responseBody.write(body);
+        responseBody.close();
+    }
+
+    String url(int x, int y, int z) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path(x, y, z);
+    }
+
+    static String path(int x, int y, int z) {
+        return "/" + z + "/" + x + "/" + y + ".png";
+    }
+
+    static String eTag(String path) {
+        return "\"" + Integer.toHexString(path.hashCode()) + "\"";
+    }
+
+    /**
+     * @return body served for the given tile
+     */
+    static byte[] body(int x, int y, int z) throws IOException {
+        return ("tile " + path(x, y, z)).getBytes("UTF-8");
+    }
+
+    /**
+     * @param delay time in ms every response is delayed by
+     */
+    void setDelay(long delay) {
+        mDelay = delay;
+    }
+
+    /**
+     * Answers the given tile with the given status and a short error body
+     */
+    void setStatus(int x, int y, int z, int status) {
+        mStatuses.put(path(x, y, z), status);
+    }
+
+    /**
+     * Serves the given tile normally again
+     */
+    void clearStatus(int x, int y, int z) {
+        mStatuses.remove(path(x, y, z));
+    }
+
+    int getRequestCount(int x, int y, int z) {
+        AtomicInteger count = mRequestCounts.get(path(x, y, z));
+        return count == null ? 0 : count.get();
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return highest number of requests served at once
+     */
+    int getMaxActiveRequestCount() {
+        return mMaxActiveRequestCount.get();
+    }
+
+    /**
+     * @return number of distinct client connections the requests came from
+     */
+    int getConnectionCount() {
+        return mClients.size();
+    }
+
+    void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+}
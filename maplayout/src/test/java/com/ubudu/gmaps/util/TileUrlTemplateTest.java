@@ -0,0 +1,41 @@
+package com.ubudu.gmaps.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the urls rendered by compiled tile url templates.
+ */
+public class TileUrlTemplateTest {
+
+    @Test
+    public void render_substitutesPlaceholders() {
+        TileUrlTemplate template = new TileUrlTemplate("https://{s}.tiles.example.com/{z}/{x}/{y}{r}.png?q={q}&k={k}");
+        assertEquals("https://b.tiles.example.com/3/5/2.png?q=121&k={k}", template.render(5, 2, 3));
+        template.setScaleSuffix("@2x");
+        assertEquals("https://b.tiles.example.com/3/5/2@2x.png?q=121&k={k}", template.render(5, 2, 3));
+        assertTrue(template.hasScalePlaceholder());
+    }
+
+    @Test
+    public void render_substitutesTmsRows() {
+        TileUrlTemplate template = new TileUrlTemplate("http://tiles/{z}/{x}/{y}.png", true);
+        assertEquals("http://tiles/3/5/5.png", template.render(5, 2, 3));
+        assertFalse(template.hasScalePlaceholder());
+    }
+
+    @Test
+    public void render_keepsUnterminatedBraces() {
+        TileUrlTemplate template = new TileUrlTemplate("http://tiles/{z}/{x}/{y}.png?{z");
+        assertEquals("http://tiles/3/5/2.png?{z", template.render(5, 2, 3));
+    }
+
+    @Test
+    public void render_sendsEachTileToTheSameSubdomain() {
+        TileUrlTemplate template = new TileUrlTemplate("http://{s}.tiles/{z}/{x}/{y}.png", false, "one", "two");
+        assertEquals(template.render(7, 3, 4), template.render(7, 3, 4));
+        assertEquals("http://one.tiles/4/7/3.png", template.render(7, 3, 4));
+        assertEquals("http://two.tiles/4/7/4.png", template.render(7, 4, 4));
+    }
+}